@@ -2,6 +2,9 @@ package net.tpky.demoapp;
 
 import android.app.Application;
 
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.Volley;
+
 import com.tapkey.mobile.TapkeyAppContext;
 import com.tapkey.mobile.TapkeyServiceFactory;
 import com.tapkey.mobile.TapkeyServiceFactoryBuilder;
@@ -12,22 +15,49 @@ import com.tapkey.mobile.broadcast.PollingScheduler;
  */
 public class App extends Application implements TapkeyAppContext {
 
+    /*
+     * How many locks may be triggered at the same time, sharing the Bluetooth radio
+     */
+    private static final int MAX_CONCURRENT_TRIGGERS = 2;
+
     /*
      * The TapkeyServiceFactory holds all needed services
      */
     private TapkeyServiceFactory tapkeyServiceFactory;
 
+    /*
+     * The network stack shared by all components of the app. Volley's default HTTP stack is backed
+     * by HttpURLConnection, which keeps connections alive and pools them across requests.
+     */
+    private RequestQueue requestQueue;
+    private SampleServerManager sampleServerManager;
+    private TapkeyTokenExchangeManager tokenExchangeManager;
+    private TokenLifecycleManager tokenLifecycleManager;
+    private KeyListSnapshot keyListSnapshot;
+    private TriggerLatencyRecorder triggerLatencyRecorder;
+    private TriggerPolicy triggerPolicy;
+    private TriggerScheduler triggerScheduler;
+
     @Override
     public void onCreate() {
         super.onCreate();
 
+        this.requestQueue = Volley.newRequestQueue(this);
+        this.sampleServerManager = new SampleServerManager(this, requestQueue);
+        this.tokenExchangeManager = new TapkeyTokenExchangeManager(this);
+        this.tokenLifecycleManager = new TokenLifecycleManager(this, sampleServerManager, tokenExchangeManager);
+        this.keyListSnapshot = new KeyListSnapshot(this);
+        this.triggerLatencyRecorder = new TriggerLatencyRecorder(this);
+        this.triggerPolicy = new TriggerPolicy(this);
+        this.triggerScheduler = new TriggerScheduler(MAX_CONCURRENT_TRIGGERS);
+
         /*
          * Create an instance of TapkeyServiceFactory. Tapkey expects that a single instance of
          * TapkeyServiceFactory exists inside an application that can be retrieved via the
          * Application instance's getTapkeyServiceFactory() method.
          */
         TapkeyServiceFactoryBuilder b = new TapkeyServiceFactoryBuilder(this);
-        b.setTokenRefreshHandler(new SampleTokenRefreshHandler(this));
+        b.setTokenRefreshHandler(new SampleTokenRefreshHandler(this, tokenLifecycleManager));
         this.tapkeyServiceFactory = b.build();
 
         /*
@@ -43,8 +73,66 @@ public class App extends Application implements TapkeyAppContext {
         PollingScheduler.register(this, 1, PollingScheduler.DEFAULT_INTERVAL);
     }
 
+    /*
+     * onTerminate() is only ever called in emulated process environments. On devices, the process
+     * is killed without notice, and the OS reclaims the threads and connections held by these
+     * components. Nothing may rely on this for correctness: caches are written as soon as they
+     * change, and user data is cleared when the user signs out, not here.
+     */
+    @Override
+    public void onTerminate() {
+        tokenLifecycleManager.reset();
+        tokenExchangeManager.close();
+        sampleServerManager.close();
+        keyListSnapshot.close();
+        triggerLatencyRecorder.close();
+        requestQueue.stop();
+        super.onTerminate();
+    }
+
+    /*
+     * Forgets everything kept for the signed out user: credentials, cached grant information,
+     * keys and tokens. Called whenever the user is signed out, either explicitly or because the
+     * Tapkey SDK lost the user.
+     */
+    void onSignedOut() {
+        AuthStateManager.setLoggedOut(this);
+        sampleServerManager.clearCache();
+        keyListSnapshot.clear();
+        triggerPolicy.clear();
+        tokenLifecycleManager.reset();
+    }
+
     @Override
     public TapkeyServiceFactory getTapkeyServiceFactory() {
         return tapkeyServiceFactory;
     }
+
+    SampleServerManager getSampleServerManager() {
+        return sampleServerManager;
+    }
+
+    TapkeyTokenExchangeManager getTokenExchangeManager() {
+        return tokenExchangeManager;
+    }
+
+    TokenLifecycleManager getTokenLifecycleManager() {
+        return tokenLifecycleManager;
+    }
+
+    KeyListSnapshot getKeyListSnapshot() {
+        return keyListSnapshot;
+    }
+
+    TriggerLatencyRecorder getTriggerLatencyRecorder() {
+        return triggerLatencyRecorder;
+    }
+
+    TriggerPolicy getTriggerPolicy() {
+        return triggerPolicy;
+    }
+
+    TriggerScheduler getTriggerScheduler() {
+        return triggerScheduler;
+    }
 }
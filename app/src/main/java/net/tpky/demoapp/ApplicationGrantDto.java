@@ -1,6 +1,7 @@
 package net.tpky.demoapp;
 
 import java.util.Date;
+import java.util.Objects;
 
 public class ApplicationGrantDto {
     private String id;
@@ -105,4 +106,28 @@ public class ApplicationGrantDto {
     public void setLockLocation(String lockLocation) {
         this.lockLocation = lockLocation;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ApplicationGrantDto that = (ApplicationGrantDto) o;
+        return Objects.equals(id, that.id) &&
+                Objects.equals(state, that.state) &&
+                Objects.equals(validBefore, that.validBefore) &&
+                Objects.equals(validFrom, that.validFrom) &&
+                Objects.equals(timeRestrictionIcal, that.timeRestrictionIcal) &&
+                Objects.equals(issuer, that.issuer) &&
+                Objects.equals(granteeFirstName, that.granteeFirstName) &&
+                Objects.equals(granteeLastName, that.granteeLastName) &&
+                Objects.equals(lockTitle, that.lockTitle) &&
+                Objects.equals(lockLocation, that.lockLocation) &&
+                Objects.equals(physicalLockId, that.physicalLockId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, state, validBefore, validFrom, timeRestrictionIcal, issuer,
+                granteeFirstName, granteeLastName, lockTitle, lockLocation, physicalLockId);
+    }
 }
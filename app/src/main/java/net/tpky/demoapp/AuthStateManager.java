@@ -8,6 +8,9 @@ class AuthStateManager {
 
     private static final String KEY_USERNAME = "KEY_USERNAME";
     private static final String KEY_PASSWORD = "KEY_PASSWORD";
+    private static final String KEY_EXTERNAL_TOKEN = "KEY_EXTERNAL_TOKEN";
+    private static final String KEY_EXTERNAL_TOKEN_EXPIRES_AT = "KEY_EXTERNAL_TOKEN_EXPIRES_AT";
+    private static final String KEY_EXTERNAL_TOKEN_USERNAME = "KEY_EXTERNAL_TOKEN_USERNAME";
 
     private static SharedPreferences getPreferences(Context context) {
         return PreferenceManager.getDefaultSharedPreferences(context);
@@ -24,6 +27,9 @@ class AuthStateManager {
         SharedPreferences.Editor editor = getPreferences(context).edit();
         editor.remove(KEY_USERNAME);
         editor.remove(KEY_PASSWORD);
+        editor.remove(KEY_EXTERNAL_TOKEN);
+        editor.remove(KEY_EXTERNAL_TOKEN_EXPIRES_AT);
+        editor.remove(KEY_EXTERNAL_TOKEN_USERNAME);
         editor.apply();
     }
 
@@ -39,4 +45,30 @@ class AuthStateManager {
     static String getPassword(Context context) {
         return getPreferences(context).getString(KEY_PASSWORD, null);
     }
+
+    static void setExternalToken(Context context, String username, String externalToken, long expiresAt) {
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        if (externalToken != null) {
+            editor.putString(KEY_EXTERNAL_TOKEN, externalToken);
+            editor.putLong(KEY_EXTERNAL_TOKEN_EXPIRES_AT, expiresAt);
+            editor.putString(KEY_EXTERNAL_TOKEN_USERNAME, username);
+        } else {
+            editor.remove(KEY_EXTERNAL_TOKEN);
+            editor.remove(KEY_EXTERNAL_TOKEN_EXPIRES_AT);
+            editor.remove(KEY_EXTERNAL_TOKEN_USERNAME);
+        }
+        editor.apply();
+    }
+
+    static String getExternalToken(Context context) {
+        return getPreferences(context).getString(KEY_EXTERNAL_TOKEN, null);
+    }
+
+    static long getExternalTokenExpiresAt(Context context) {
+        return getPreferences(context).getLong(KEY_EXTERNAL_TOKEN_EXPIRES_AT, 0);
+    }
+
+    static String getExternalTokenUsername(Context context) {
+        return getPreferences(context).getString(KEY_EXTERNAL_TOKEN_USERNAME, null);
+    }
 }
@@ -0,0 +1,98 @@
+package net.tpky.demoapp;
+
+import android.content.Context;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Caches the external token issued by the sample server, so that it can be reused for token
+ * exchanges until shortly before it expires.
+ *
+ * The token is stored along with the logged in user's credentials by the {@link AuthStateManager}
+ * and is thus discarded on logout. It is only returned for the user it was issued for. Its expiry
+ * is taken from the JWT's {@code exp} claim; tokens without an {@code exp} claim are not cached.
+ */
+class ExternalTokenCache {
+
+    private static final String TAG = ExternalTokenCache.class.getSimpleName();
+
+    static final long DEFAULT_SAFETY_MARGIN_MS = 60 * 1000;
+
+    private final Context context;
+    private final long safetyMarginMs;
+
+    /**
+     * @param context the application context.
+     * @param safetyMarginMs the time before the token's expiry, after which it is no longer
+     *                       reused.
+     */
+    ExternalTokenCache(Context context, long safetyMarginMs) {
+        this.context = context.getApplicationContext();
+        this.safetyMarginMs = safetyMarginMs;
+    }
+
+    /**
+     * Returns the external token cached for the given user, or null if there is none, or it is
+     * about to expire.
+     */
+    String get(String username) {
+        String token = AuthStateManager.getExternalToken(context);
+        if (token == null || !Objects.equals(username, AuthStateManager.getExternalTokenUsername(context))) {
+            return null;
+        }
+
+        long expiresAt = AuthStateManager.getExternalTokenExpiresAt(context);
+        if (expiresAt - safetyMarginMs <= System.currentTimeMillis()) {
+            return null;
+        }
+
+        return token;
+    }
+
+    /**
+     * Caches the given external token of the given user until shortly before it expires.
+     */
+    void put(String username, String token) {
+        long expiresAt = getExpiresAt(token);
+        if (expiresAt <= 0) {
+            invalidate(username);
+            return;
+        }
+        AuthStateManager.setExternalToken(context, username, token, expiresAt);
+    }
+
+    /**
+     * Discards the external token cached for the given user, e.g. if it has been rejected.
+     */
+    void invalidate(String username) {
+        if (Objects.equals(username, AuthStateManager.getExternalTokenUsername(context))) {
+            AuthStateManager.setExternalToken(context, null, null, 0);
+        }
+    }
+
+    /**
+     * Returns the expiry of the given JWT in milliseconds since the epoch, or 0 if it can't be
+     * determined.
+     */
+    static long getExpiresAt(String jwt) {
+        String[] parts = jwt.split("\\.");
+        if (parts.length < 2) {
+            return 0;
+        }
+
+        try {
+            byte[] payload = Base64.decode(parts[1], Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+            JSONObject claims = new JSONObject(new String(payload, StandardCharsets.UTF_8));
+            return claims.optLong("exp", 0) * 1000;
+        } catch (IllegalArgumentException | JSONException e) {
+            Log.w(TAG, "Couldn't decode external token.", e);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package net.tpky.demoapp;
+
+import android.os.Debug;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Debugging aid, which measures frame times and allocations while a RecyclerView is scrolled.
+ *
+ * Once scrolling comes to a halt, the number of frames, the number of frames that missed the
+ * frame budget, the longest frame, and the bytes allocated and garbage collections run during the
+ * scroll are logged.
+ */
+class FrameTimeMonitor extends RecyclerView.OnScrollListener implements Choreographer.FrameCallback {
+
+    private static final String TAG = FrameTimeMonitor.class.getSimpleName();
+
+    private static final long FRAME_BUDGET_NS = 1000000000L / 60;
+
+    private final String name;
+
+    private boolean monitoring;
+    private long lastFrameTimeNanos;
+    private int frames;
+    private int jankyFrames;
+    private long maxFrameNanos;
+    private long totalFrameNanos;
+    private long bytesAllocatedAtStart;
+    private long gcCountAtStart;
+
+    FrameTimeMonitor(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState != RecyclerView.SCROLL_STATE_IDLE) {
+            if (!monitoring) {
+                start();
+            }
+        } else if (monitoring) {
+            stop();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!monitoring) {
+            return;
+        }
+
+        if (lastFrameTimeNanos != 0) {
+            long frameNanos = frameTimeNanos - lastFrameTimeNanos;
+            frames++;
+            totalFrameNanos += frameNanos;
+            maxFrameNanos = Math.max(maxFrameNanos, frameNanos);
+            if (frameNanos > FRAME_BUDGET_NS) {
+                jankyFrames++;
+            }
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private void start() {
+        monitoring = true;
+        lastFrameTimeNanos = 0;
+        frames = 0;
+        jankyFrames = 0;
+        maxFrameNanos = 0;
+        totalFrameNanos = 0;
+        bytesAllocatedAtStart = getRuntimeStat("art.gc.bytes-allocated");
+        gcCountAtStart = getRuntimeStat("art.gc.gc-count");
+
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private void stop() {
+        monitoring = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+
+        if (frames == 0) {
+            return;
+        }
+
+        Log.d(TAG, String.format("%s: %d frames, %d over budget, avg %.1f ms, max %.1f ms, %d KB allocated, %d GCs.",
+                name,
+                frames,
+                jankyFrames,
+                totalFrameNanos / (double) frames / 1000000,
+                maxFrameNanos / 1000000.0,
+                (getRuntimeStat("art.gc.bytes-allocated") - bytesAllocatedAtStart) / 1024,
+                getRuntimeStat("art.gc.gc-count") - gcCountAtStart));
+    }
+
+    private static long getRuntimeStat(String name) {
+        String value = Debug.getRuntimeStat(name);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
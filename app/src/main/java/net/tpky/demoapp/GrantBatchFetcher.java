@@ -0,0 +1,140 @@
+package net.tpky.demoapp;
+
+import android.util.Log;
+
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fetches application grant information for a large number of grant IDs by splitting the IDs into
+ * bounded chunks, which are fetched concurrently with a limited number of requests in flight.
+ *
+ * The partial results are merged into a single list. If fetching any chunk fails, the whole fetch
+ * fails and no further chunks are requested, so that a partial list is never mistaken for a
+ * complete one.
+ */
+class GrantBatchFetcher {
+
+    private static final String TAG = GrantBatchFetcher.class.getSimpleName();
+
+    interface ChunkFetcher {
+        Promise<List<ApplicationGrantDto>> fetch(String[] grantIds);
+    }
+
+    private final List<String[]> chunks;
+    private final int maxInFlight;
+    private final ChunkFetcher chunkFetcher;
+
+    private final List<List<ApplicationGrantDto>> results;
+    private final PromiseSource<List<ApplicationGrantDto>> res = new PromiseSource<>();
+
+    private int nextChunk;
+    private int completedChunks;
+    private boolean failed;
+
+    private GrantBatchFetcher(List<String[]> chunks, int maxInFlight, ChunkFetcher chunkFetcher) {
+        this.chunks = chunks;
+        this.maxInFlight = maxInFlight;
+        this.chunkFetcher = chunkFetcher;
+        this.results = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            results.add(null);
+        }
+    }
+
+    /**
+     * Fetches the grants with the given IDs.
+     *
+     * @param grantIds the IDs of the grants to fetch.
+     * @param chunkSize the maximum number of grant IDs per request.
+     * @param maxInFlight the maximum number of concurrent requests.
+     * @param chunkFetcher fetches the grants for a single chunk of grant IDs.
+     * @return the merged grants of all chunks, or the first error if fetching any chunk failed.
+     */
+    static Promise<List<ApplicationGrantDto>> fetch(String[] grantIds, int chunkSize, int maxInFlight, ChunkFetcher chunkFetcher) {
+
+        // Sort the IDs, so that the same set of IDs always results in the same chunks. This way,
+        // the individual chunk requests can be revalidated against the grant cache.
+        String[] sorted = grantIds.clone();
+        Arrays.sort(sorted);
+
+        List<String[]> chunks = new ArrayList<>();
+        for (int i = 0; i < sorted.length; i += chunkSize) {
+            chunks.add(Arrays.copyOfRange(sorted, i, Math.min(sorted.length, i + chunkSize)));
+        }
+
+        GrantBatchFetcher fetcher = new GrantBatchFetcher(chunks, maxInFlight, chunkFetcher);
+        fetcher.start();
+        return fetcher.res.getPromise();
+    }
+
+    private void start() {
+        if (chunks.isEmpty()) {
+            res.setResult(new ArrayList<>());
+            return;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < maxInFlight && nextChunk < chunks.size(); i++) {
+                fetchChunk(nextChunk++);
+            }
+        }
+    }
+
+    private void fetchChunk(int index) {
+        Promise<List<ApplicationGrantDto>> chunkPromise;
+        try {
+            chunkPromise = chunkFetcher.fetch(chunks.get(index));
+        } catch (Exception e) {
+            onChunkCompleted(index, null, e);
+            return;
+        }
+
+        chunkPromise
+                .continueOnUi(grants -> {
+                    onChunkCompleted(index, grants, null);
+                    return null;
+                })
+                .catchOnUi(e -> {
+                    onChunkCompleted(index, null, e);
+                    return null;
+                })
+                .conclude();
+    }
+
+    private synchronized void onChunkCompleted(int index, List<ApplicationGrantDto> grants, Exception e) {
+
+        if (failed) {
+            return;
+        }
+
+        if (e != null) {
+            Log.w(TAG, "Fetching chunk " + (index + 1) + " of " + chunks.size() + " failed.", e);
+            failed = true;
+            res.setException(e);
+            return;
+        }
+
+        results.set(index, grants);
+        completedChunks++;
+
+        if (nextChunk < chunks.size()) {
+            fetchChunk(nextChunk++);
+            return;
+        }
+
+        if (completedChunks < chunks.size()) {
+            return;
+        }
+
+        List<ApplicationGrantDto> merged = new ArrayList<>();
+        for (List<ApplicationGrantDto> result : results) {
+            merged.addAll(result);
+        }
+        res.setResult(merged);
+    }
+}
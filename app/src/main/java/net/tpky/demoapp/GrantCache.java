@@ -0,0 +1,516 @@
+package net.tpky.demoapp;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Disk-backed cache of a user's application grant information, keyed by grant ID.
+ *
+ * Cached grants can be served immediately, e.g. while fresh information is still being fetched
+ * from the sample server. Besides the grants themselves, the cache keeps the ETag and
+ * Last-Modified validators of previous grant requests, so that these requests can be revalidated
+ * conditionally.
+ *
+ * The cache file holds the grants of a single user. An instance only loads the file, if it was
+ * written for the instance's user, so grants and watermarks of one user are never served to
+ * another.
+ *
+ * The cache is bounded in size (least recently used entries are evicted first) and entries expire
+ * after a maximum age. Validators are only kept while all grants they cover are cached. All methods
+ * are thread-safe. The cache file is loaded lazily on first access and written asynchronously, so
+ * methods that may hit the disk must not be called from the UI thread; {@link #getAsync(String[])}
+ * may be called from any thread.
+ */
+class GrantCache {
+
+    private static final String TAG = GrantCache.class.getSimpleName();
+
+    private static final String FILE_NAME = "grant_cache.json";
+
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final int MAX_VALIDATORS = 64;
+    private static final long DEFAULT_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    static class Validator {
+        final String etag;
+        final String lastModified;
+
+        Validator(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static class CachedGrant {
+        final ApplicationGrantDto grant;
+        long storedAt;
+
+        CachedGrant(ApplicationGrantDto grant, long storedAt) {
+            this.grant = grant;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private final AtomicFile file;
+    private final String username;
+    private final int maxEntries;
+    private final long maxAgeMs;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+
+    // Both maps are access-ordered, so the eldest entry is the least recently used one.
+    private final LinkedHashMap<String, CachedGrant> entries;
+    private final LinkedHashMap<String, Validator> validators;
+
+    // The watermark of the last delta synchronization, if any.
+    private String watermark;
+
+    private boolean loaded;
+    private boolean savePending;
+
+    /**
+     * @param username the user whose grants are cached, or null if no user is known, in which
+     *                 case no cached grants are loaded.
+     */
+    GrantCache(Context context, String username) {
+        this(new File(context.getCacheDir(), FILE_NAME), username, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE_MS);
+    }
+
+    GrantCache(File file, String username, int maxEntries, long maxAgeMs) {
+        this.file = new AtomicFile(file);
+        this.username = username;
+        this.maxEntries = maxEntries;
+        this.maxAgeMs = maxAgeMs;
+
+        this.entries = new LinkedHashMap<String, CachedGrant>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedGrant> eldest) {
+                if (size() > GrantCache.this.maxEntries) {
+                    removeValidators(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        this.validators = new LinkedHashMap<String, Validator>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Validator> eldest) {
+                return size() > MAX_VALIDATORS;
+            }
+        };
+    }
+
+    /**
+     * Returns the key under which validators for a request for the given grant IDs are stored.
+     */
+    static String getRequestKey(String[] grantIds) {
+        String[] sorted = grantIds.clone();
+        Arrays.sort(sorted);
+        return String.join(",", sorted);
+    }
+
+    /**
+     * Asynchronously looks up the cached, non-expired grants with the given IDs. Grants that are
+     * not cached are omitted from the result.
+     */
+    Promise<List<ApplicationGrantDto>> getAsync(String[] grantIds) {
+        PromiseSource<List<ApplicationGrantDto>> res = new PromiseSource<>();
+        ioExecutor.execute(() -> {
+            try {
+                res.setResult(get(grantIds));
+            } catch (Exception e) {
+                res.setException(e);
+            }
+        });
+        return res.getPromise();
+    }
+
+    /**
+     * Returns the cached, non-expired grants with the given IDs. Grants that are not cached are
+     * omitted from the result.
+     */
+    synchronized List<ApplicationGrantDto> get(String[] grantIds) {
+        ensureLoaded();
+        long now = System.currentTimeMillis();
+        List<ApplicationGrantDto> res = new ArrayList<>(grantIds.length);
+        for (String grantId : grantIds) {
+            CachedGrant entry = getFresh(grantId, now);
+            if (entry != null) {
+                res.add(entry.grant);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns the cached grants with the given IDs, or null if at least one of them is not
+     * cached or expired.
+     */
+    synchronized List<ApplicationGrantDto> getAll(String[] grantIds) {
+        List<ApplicationGrantDto> res = get(grantIds);
+        return (res.size() == grantIds.length) ? res : null;
+    }
+
+    /**
+     * Returns the validator that can be used to revalidate a request for the given grant IDs, or
+     * null if the request can't be revalidated, because not all of the grants are cached.
+     */
+    synchronized Validator getValidator(String[] grantIds) {
+        ensureLoaded();
+        Validator validator = validators.get(getRequestKey(grantIds));
+        if (validator == null || getAll(grantIds) == null) {
+            return null;
+        }
+        return validator;
+    }
+
+    /**
+     * Marks the cached grants with the given IDs as revalidated, e.g. after the server responded
+     * with 304 Not Modified, and returns them. Returns null, if not all of them are cached.
+     */
+    synchronized List<ApplicationGrantDto> revalidate(String[] grantIds) {
+        List<ApplicationGrantDto> res = getAll(grantIds);
+        if (res == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        for (ApplicationGrantDto grant : res) {
+            entries.put(grant.getId(), new CachedGrant(grant, now));
+        }
+        scheduleSave();
+        return res;
+    }
+
+    /**
+     * Updates the cache with a fresh response to a request for the given grant IDs. Only entries
+     * that actually changed are replaced. Requested grants that are missing in the response are
+     * removed from the cache.
+     */
+    synchronized void update(String[] grantIds, Validator validator, List<ApplicationGrantDto> grants) {
+        ensureLoaded();
+        long now = System.currentTimeMillis();
+
+        Set<String> received = new HashSet<>(grants.size());
+        for (ApplicationGrantDto grant : grants) {
+            received.add(grant.getId());
+            CachedGrant existing = entries.get(grant.getId());
+            ApplicationGrantDto value = (existing != null && existing.grant.equals(grant)) ? existing.grant : grant;
+            entries.put(grant.getId(), new CachedGrant(value, now));
+        }
+
+        for (String grantId : grantIds) {
+            if (!received.contains(grantId)) {
+                removeEntry(grantId);
+            }
+        }
+
+        // A validator is useless, unless all grants it covers are cached, e.g. because the
+        // response is larger than the cache.
+        String requestKey = getRequestKey(grantIds);
+        boolean allCached = true;
+        for (String grantId : grantIds) {
+            allCached &= entries.containsKey(grantId);
+        }
+        if (allCached && validator != null && (validator.etag != null || validator.lastModified != null)) {
+            validators.put(requestKey, validator);
+        } else {
+            validators.remove(requestKey);
+        }
+
+        scheduleSave();
+    }
+
+    /**
+     * Asynchronously looks up the watermark of the last delta synchronization.
+     *
+     * @return the watermark, or null if the grants have not been synchronized yet.
+     */
+    Promise<String> getWatermarkAsync() {
+        PromiseSource<String> res = new PromiseSource<>();
+        ioExecutor.execute(() -> res.setResult(getWatermark()));
+        return res.getPromise();
+    }
+
+    /**
+     * Returns the watermark of the last delta synchronization, or null if the grants have not
+     * been synchronized yet.
+     */
+    synchronized String getWatermark() {
+        ensureLoaded();
+        return watermark;
+    }
+
+    /**
+     * Applies the changes returned by a delta synchronization. Afterwards, all cached grants are
+     * considered current.
+     *
+     * @param changes the changes to apply.
+     * @param fullSync whether the changes are a full snapshot of the user's grants rather than a
+     *                 delta, in which case all other cached grants are discarded.
+     */
+    synchronized void applyChanges(GrantChanges changes, boolean fullSync) {
+        ensureLoaded();
+        long now = System.currentTimeMillis();
+
+        if (fullSync) {
+            entries.clear();
+            validators.clear();
+        }
+
+        for (String grantId : changes.getRevoked()) {
+            removeEntry(grantId);
+        }
+
+        // The synchronization confirmed that the grants that didn't change are still current.
+        for (CachedGrant entry : entries.values()) {
+            entry.storedAt = now;
+        }
+
+        for (ApplicationGrantDto grant : changes.getChanged()) {
+            entries.put(grant.getId(), new CachedGrant(grant, now));
+        }
+
+        watermark = changes.getWatermark();
+        scheduleSave();
+    }
+
+    /**
+     * Returns the user whose grants are cached.
+     */
+    String getUsername() {
+        return username;
+    }
+
+    /**
+     * Removes all entries from the cache, e.g. after the user logged out.
+     */
+    synchronized void clear() {
+        loaded = true;
+        entries.clear();
+        validators.clear();
+        watermark = null;
+        scheduleSave();
+    }
+
+    /**
+     * Shuts down the cache's I/O thread after pending writes have been completed.
+     */
+    void close() {
+        ioExecutor.shutdown();
+    }
+
+    private CachedGrant getFresh(String grantId, long now) {
+        CachedGrant entry = entries.get(grantId);
+        if (entry == null) {
+            return null;
+        }
+        if (now - entry.storedAt > maxAgeMs) {
+            removeEntry(grantId);
+            return null;
+        }
+        return entry;
+    }
+
+    private void removeEntry(String grantId) {
+        if (entries.remove(grantId) != null) {
+            removeValidators(grantId);
+        }
+    }
+
+    /**
+     * Removes the validators of all requests covering the given grant.
+     */
+    private void removeValidators(String grantId) {
+        Iterator<String> it = validators.keySet().iterator();
+        while (it.hasNext()) {
+            if (Arrays.asList(it.next().split(",")).contains(grantId)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void scheduleSave() {
+        if (savePending || ioExecutor.isShutdown()) {
+            return;
+        }
+        savePending = true;
+        ioExecutor.execute(this::save);
+    }
+
+    private void save() {
+        String json;
+        synchronized (this) {
+            savePending = false;
+            try {
+                json = toJson().toString();
+            } catch (JSONException e) {
+                Log.e(TAG, "Couldn't serialize grant cache.", e);
+                return;
+            }
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't write grant cache.", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        byte[] data;
+        try {
+            data = file.readFully();
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't read grant cache.", e);
+            return;
+        }
+
+        try {
+            fromJson(new JSONObject(new String(data, StandardCharsets.UTF_8)));
+        } catch (JSONException e) {
+            Log.e(TAG, "Discarding corrupt grant cache.", e);
+            entries.clear();
+            validators.clear();
+            watermark = null;
+        }
+    }
+
+    private JSONObject toJson() throws JSONException {
+        JSONArray jsonEntries = new JSONArray();
+        for (CachedGrant entry : entries.values()) {
+            JSONObject obj = grantToJson(entry.grant);
+            obj.put("storedAt", entry.storedAt);
+            jsonEntries.put(obj);
+        }
+
+        JSONObject jsonValidators = new JSONObject();
+        for (Map.Entry<String, Validator> entry : validators.entrySet()) {
+            JSONObject obj = new JSONObject();
+            obj.putOpt("etag", entry.getValue().etag);
+            obj.putOpt("lastModified", entry.getValue().lastModified);
+            jsonValidators.put(entry.getKey(), obj);
+        }
+
+        JSONObject res = new JSONObject();
+        res.putOpt("username", username);
+        res.put("entries", jsonEntries);
+        res.put("validators", jsonValidators);
+        res.putOpt("watermark", watermark);
+        return res;
+    }
+
+    private void fromJson(JSONObject json) throws JSONException {
+        if (username == null || !username.equals(json.optString("username", null))) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        JSONArray jsonEntries = json.getJSONArray("entries");
+        for (int i = 0; i < jsonEntries.length(); i++) {
+            JSONObject obj = jsonEntries.getJSONObject(i);
+            long storedAt = obj.getLong("storedAt");
+            if (now - storedAt > maxAgeMs) {
+                continue;
+            }
+            ApplicationGrantDto grant = grantFromJson(obj);
+            entries.put(grant.getId(), new CachedGrant(grant, storedAt));
+        }
+
+        watermark = json.optString("watermark", null);
+
+        JSONObject jsonValidators = json.getJSONObject("validators");
+        JSONArray keys = jsonValidators.names();
+        if (keys != null) {
+            for (int i = 0; i < keys.length(); i++) {
+                String key = keys.getString(i);
+                if (!entries.keySet().containsAll(Arrays.asList(key.split(",")))) {
+                    continue;
+                }
+                JSONObject obj = jsonValidators.getJSONObject(key);
+                validators.put(key, new Validator(
+                        obj.optString("etag", null),
+                        obj.optString("lastModified", null)));
+            }
+        }
+    }
+
+    private static JSONObject grantToJson(ApplicationGrantDto grant) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("id", grant.getId());
+        obj.putOpt("state", grant.getState());
+        obj.putOpt("granteeFirstName", grant.getGranteeFirstName());
+        obj.putOpt("granteeLastName", grant.getGranteeLastName());
+        obj.putOpt("issuer", grant.getIssuer());
+        obj.putOpt("lockTitle", grant.getLockTitle());
+        obj.putOpt("lockLocation", grant.getLockLocation());
+        obj.putOpt("physicalLockId", grant.getPhysicalLockId());
+        obj.putOpt("timeRestrictionIcal", grant.getTimeRestrictionIcal());
+        if (grant.getValidFrom() != null) {
+            obj.put("validFrom", grant.getValidFrom().getTime());
+        }
+        if (grant.getValidBefore() != null) {
+            obj.put("validBefore", grant.getValidBefore().getTime());
+        }
+        return obj;
+    }
+
+    private static ApplicationGrantDto grantFromJson(JSONObject obj) throws JSONException {
+        ApplicationGrantDto grant = new ApplicationGrantDto();
+        grant.setId(obj.getString("id"));
+        grant.setState(obj.optString("state", null));
+        grant.setGranteeFirstName(obj.optString("granteeFirstName", null));
+        grant.setGranteeLastName(obj.optString("granteeLastName", null));
+        grant.setIssuer(obj.optString("issuer", null));
+        grant.setLockTitle(obj.optString("lockTitle", null));
+        grant.setLockLocation(obj.optString("lockLocation", null));
+        grant.setPhysicalLockId(obj.optString("physicalLockId", null));
+        grant.setTimeRestrictionIcal(obj.optString("timeRestrictionIcal", null));
+        if (obj.has("validFrom")) {
+            grant.setValidFrom(new Date(obj.getLong("validFrom")));
+        }
+        if (obj.has("validBefore")) {
+            grant.setValidBefore(new Date(obj.getLong("validBefore")));
+        }
+        return grant;
+    }
+}
@@ -0,0 +1,41 @@
+package net.tpky.demoapp;
+
+import java.util.List;
+
+/**
+ * The changes to a user's grants since a given watermark, as returned by the sample server's
+ * delta synchronization endpoint.
+ */
+class GrantChanges {
+
+    private final String watermark;
+    private final List<ApplicationGrantDto> changed;
+    private final List<String> revoked;
+
+    GrantChanges(String watermark, List<ApplicationGrantDto> changed, List<String> revoked) {
+        this.watermark = watermark;
+        this.changed = changed;
+        this.revoked = revoked;
+    }
+
+    /**
+     * Returns the watermark to be sent along with the next synchronization request.
+     */
+    String getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Returns the grants that were added or changed since the previous watermark.
+     */
+    List<ApplicationGrantDto> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Returns the IDs of the grants that were revoked since the previous watermark.
+     */
+    List<String> getRevoked() {
+        return revoked;
+    }
+}
@@ -0,0 +1,69 @@
+package net.tpky.demoapp;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Volley request that queries the sample server for the changes to the user's grants since a
+ * given watermark and applies them to the given {@link GrantCache}.
+ *
+ * Without a watermark, the server responds with all of the user's grants, which then replace the
+ * cached ones. Responses are decoded and applied on Volley's network thread.
+ */
+class GrantChangesRequest extends Request<GrantChanges> {
+
+    private final GrantJsonReader grantJsonReader = new GrantJsonReader();
+
+    private final boolean fullSync;
+    private final Map<String, String> headers;
+    private final GrantCache cache;
+    private final Response.Listener<GrantChanges> listener;
+
+    GrantChangesRequest(
+            String url,
+            boolean fullSync,
+            Map<String, String> headers,
+            GrantCache cache,
+            Response.Listener<GrantChanges> listener,
+            Response.ErrorListener errorListener) {
+
+        super(Method.GET, url, errorListener);
+        this.fullSync = fullSync;
+        this.headers = headers;
+        this.cache = cache;
+        this.listener = listener;
+
+        setShouldCache(false);
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    protected Response<GrantChanges> parseNetworkResponse(NetworkResponse response) {
+        try {
+            Charset charset = Charset.forName(HttpHeaderParser.parseCharset(response.headers, "utf-8"));
+            GrantChanges changes = grantJsonReader.readChanges(new ByteArrayInputStream(response.data), charset);
+            cache.applyChanges(changes, fullSync);
+            return Response.success(changes, null);
+        } catch (IOException | ParseException | IllegalArgumentException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    @Override
+    protected void deliverResponse(GrantChanges response) {
+        listener.onResponse(response);
+    }
+}
@@ -0,0 +1,175 @@
+package net.tpky.demoapp;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Streaming decoder for the sample server's grants response.
+ *
+ * Grants are read directly from the raw response with a pull parser and handed off one by one as
+ * soon as they are decoded, without building an intermediate JSON DOM. Instances are stateless and
+ * may be shared between threads.
+ */
+class GrantJsonReader {
+
+    interface GrantConsumer {
+        void accept(ApplicationGrantDto grant);
+    }
+
+    /**
+     * Decodes a JSON array of grants and returns them as a list.
+     */
+    List<ApplicationGrantDto> readGrants(InputStream in, Charset charset) throws IOException, ParseException {
+        List<ApplicationGrantDto> grants = new ArrayList<>();
+        readGrants(in, charset, grants::add);
+        return grants;
+    }
+
+    /**
+     * Decodes a JSON array of grants, handing off each grant to the given consumer as soon as it
+     * has been decoded.
+     */
+    void readGrants(InputStream in, Charset charset, GrantConsumer consumer) throws IOException, ParseException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, charset))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                consumer.accept(readGrant(reader));
+            }
+            reader.endArray();
+        }
+    }
+
+    /**
+     * Decodes the response of the delta synchronization endpoint, i.e. an object of the form
+     * {@code {"watermark": "...", "changed": [...], "revoked": ["...", ...]}}.
+     */
+    GrantChanges readChanges(InputStream in, Charset charset) throws IOException, ParseException {
+        String watermark = null;
+        List<ApplicationGrantDto> changed = new ArrayList<>();
+        List<String> revoked = new ArrayList<>();
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, charset))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "watermark":
+                        watermark = nextStringOrNull(reader);
+                        break;
+                    case "changed":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            changed.add(readGrant(reader));
+                        }
+                        reader.endArray();
+                        break;
+                    case "revoked":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            revoked.add(reader.nextString());
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+
+        if (watermark == null) {
+            throw new IOException("Grant changes are missing required field 'watermark'.");
+        }
+
+        return new GrantChanges(watermark, changed, revoked);
+    }
+
+    /**
+     * Decodes a single grant object at the reader's current position.
+     */
+    ApplicationGrantDto readGrant(JsonReader reader) throws IOException, ParseException {
+        ApplicationGrantDto appGrant = new ApplicationGrantDto();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "id":
+                    appGrant.setId(nextStringOrNull(reader));
+                    break;
+                case "physicalLockId":
+                    appGrant.setPhysicalLockId(nextStringOrNull(reader));
+                    break;
+                case "state":
+                    appGrant.setState(nextStringOrNull(reader));
+                    break;
+                case "granteeFirstName":
+                    appGrant.setGranteeFirstName(nextStringOrNull(reader));
+                    break;
+                case "granteeLastName":
+                    appGrant.setGranteeLastName(nextStringOrNull(reader));
+                    break;
+                case "issuer":
+                    appGrant.setIssuer(nextStringOrNull(reader));
+                    break;
+                case "lockTitle":
+                    appGrant.setLockTitle(nextStringOrNull(reader));
+                    break;
+                case "lockLocation":
+                    appGrant.setLockLocation(nextStringOrNull(reader));
+                    break;
+                case "timeRestrictionIcal":
+                    appGrant.setTimeRestrictionIcal(nextStringOrNull(reader));
+                    break;
+                case "validFrom": {
+                    String validFrom = nextStringOrNull(reader);
+                    if (validFrom != null) {
+                        appGrant.setValidFrom(new Date(IsoDateParser.parse(validFrom)));
+                    }
+                    break;
+                }
+                case "validBefore": {
+                    String validBefore = nextStringOrNull(reader);
+                    if (validBefore != null) {
+                        appGrant.setValidBefore(new Date(IsoDateParser.parse(validBefore)));
+                    }
+                    break;
+                }
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        requireField(appGrant.getId(), "id");
+        requireField(appGrant.getPhysicalLockId(), "physicalLockId");
+        requireField(appGrant.getState(), "state");
+
+        return appGrant;
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static void requireField(String value, String name) throws IOException {
+        if (value == null) {
+            throw new IOException("Grant is missing required field '" + name + "'.");
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package net.tpky.demoapp;
+
+import com.tapkey.mobile.utils.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * In-memory store of application grant information, providing constant-time lookups by grant ID
+ * and by physical lock ID.
+ *
+ * Indexes derived from the grants register as {@link Listener}, so that they are updated with
+ * only the grants that were added, changed or removed. Listeners are notified synchronously on
+ * the thread modifying the repository. All methods are thread-safe.
+ */
+class GrantRepository {
+
+    interface Listener {
+
+        /**
+         * Called when a grant was added or changed.
+         *
+         * @param previous the grant replaced, or null if the grant was added.
+         */
+        void onGrantPut(ApplicationGrantDto grant, ApplicationGrantDto previous);
+
+        /**
+         * Called when a grant was removed.
+         */
+        void onGrantRemoved(ApplicationGrantDto grant);
+    }
+
+    private final Map<String, ApplicationGrantDto> grantsById = new HashMap<>();
+    private final Map<String, List<ApplicationGrantDto>> grantsByPhysicalLockId = new HashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+
+    /**
+     * Registers the given listener. It is notified of all grants in the repository right away.
+     */
+    synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+        for (ApplicationGrantDto grant : grantsById.values()) {
+            listener.onGrantPut(grant, null);
+        }
+    }
+
+    synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Replaces the contents of the repository with the given grants. Only grants that were added,
+     * changed or removed are reported to the listeners.
+     */
+    synchronized void setAll(List<ApplicationGrantDto> grants) {
+        Set<String> ids = new HashSet<>(grants.size() * 2);
+        for (ApplicationGrantDto grant : grants) {
+            ids.add(grant.getId());
+            put(grant);
+        }
+
+        List<String> removed = new ArrayList<>();
+        for (String id : grantsById.keySet()) {
+            if (!ids.contains(id)) {
+                removed.add(id);
+            }
+        }
+        for (String id : removed) {
+            remove(id);
+        }
+    }
+
+    /**
+     * Adds the given grant, replacing a grant with the same ID, if any.
+     */
+    synchronized void put(ApplicationGrantDto grant) {
+        ApplicationGrantDto existing = grantsById.get(grant.getId());
+        if (grant.equals(existing)) {
+            return;
+        }
+        if (existing != null) {
+            removeFromLockIndex(existing);
+        }
+
+        grantsById.put(grant.getId(), grant);
+        if (grant.getPhysicalLockId() != null) {
+            List<ApplicationGrantDto> lockGrants = grantsByPhysicalLockId.get(grant.getPhysicalLockId());
+            if (lockGrants == null) {
+                lockGrants = new ArrayList<>(1);
+                grantsByPhysicalLockId.put(grant.getPhysicalLockId(), lockGrants);
+            }
+            lockGrants.add(grant);
+        }
+        for (Listener listener : listeners) {
+            listener.onGrantPut(grant, existing);
+        }
+    }
+
+    /**
+     * Removes the grant with the given ID, if any.
+     */
+    synchronized void remove(String grantId) {
+        ApplicationGrantDto existing = grantsById.remove(grantId);
+        if (existing == null) {
+            return;
+        }
+        removeFromLockIndex(existing);
+
+        for (Listener listener : listeners) {
+            listener.onGrantRemoved(existing);
+        }
+    }
+
+    /**
+     * Returns the grant with the given ID, or null if there is none.
+     */
+    synchronized ApplicationGrantDto getById(String grantId) {
+        return grantsById.get(grantId);
+    }
+
+    /**
+     * Returns the grants for the lock with the given physical lock ID.
+     */
+    synchronized List<ApplicationGrantDto> getByPhysicalLockId(String physicalLockId) {
+        List<ApplicationGrantDto> lockGrants = grantsByPhysicalLockId.get(physicalLockId);
+        return (lockGrants == null) ? Collections.emptyList() : new ArrayList<>(lockGrants);
+    }
+
+    /**
+     * Pairs each of the given items, e.g. keys, with the grant it refers to, preserving their
+     * order. Items without a grant in the repository are omitted.
+     *
+     * @param grantIdOf returns the ID of the grant an item refers to.
+     */
+    synchronized <T> List<Tuple<T, ApplicationGrantDto>> join(List<T> items, Function<T, String> grantIdOf) {
+        List<Tuple<T, ApplicationGrantDto>> res = new ArrayList<>(items.size());
+        for (T item : items) {
+            ApplicationGrantDto grant = grantsById.get(grantIdOf.apply(item));
+            if (grant != null) {
+                res.add(new Tuple<>(item, grant));
+            }
+        }
+        return res;
+    }
+
+    private void removeFromLockIndex(ApplicationGrantDto grant) {
+        if (grant.getPhysicalLockId() == null) {
+            return;
+        }
+        List<ApplicationGrantDto> lockGrants = grantsByPhysicalLockId.get(grant.getPhysicalLockId());
+        if (lockGrants == null) {
+            return;
+        }
+        lockGrants.remove(grant);
+        if (lockGrants.isEmpty()) {
+            grantsByPhysicalLockId.remove(grant.getPhysicalLockId());
+        }
+    }
+}
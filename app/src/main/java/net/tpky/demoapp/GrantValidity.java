@@ -0,0 +1,93 @@
+package net.tpky.demoapp;
+
+import android.util.Log;
+
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Evaluates whether application grants can be used at a given time, based on their validity
+ * period and their iCalendar time restriction.
+ *
+ * Time restrictions are compiled into {@link IcalSchedule}s once and cached. Time restrictions
+ * that can't be evaluated, e.g. because they use unsupported recurrence rules, are treated as
+ * unrestricted, leaving the decision to the lock. All methods are thread-safe.
+ */
+class GrantValidity {
+
+    private static final String TAG = GrantValidity.class.getSimpleName();
+
+    private static final int MAX_SCHEDULES = 256;
+
+    // Compiled schedules by their iCalendar source, least recently used first. Time restrictions
+    // that couldn't be compiled map to null.
+    private final LinkedHashMap<String, IcalSchedule> schedules = new LinkedHashMap<String, IcalSchedule>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, IcalSchedule> eldest) {
+            return size() > MAX_SCHEDULES;
+        }
+    };
+
+    /**
+     * Returns whether the given grant can be used at the given time.
+     */
+    boolean isValidAt(ApplicationGrantDto grant, long time) {
+        if (grant.getValidFrom() != null && time < grant.getValidFrom().getTime()) {
+            return false;
+        }
+        if (grant.getValidBefore() != null && time >= grant.getValidBefore().getTime()) {
+            return false;
+        }
+
+        IcalSchedule schedule = getSchedule(grant);
+        return schedule == null || schedule.isActiveAt(time);
+    }
+
+    /**
+     * Returns the next time after the given time at which the grant's validity may change, or
+     * {@link Long#MAX_VALUE} if it won't change anymore.
+     */
+    long getNextTransition(ApplicationGrantDto grant, long time) {
+        long res = Long.MAX_VALUE;
+        if (grant.getValidFrom() != null && grant.getValidFrom().getTime() > time) {
+            res = grant.getValidFrom().getTime();
+        }
+        if (grant.getValidBefore() != null && grant.getValidBefore().getTime() > time) {
+            res = Math.min(res, grant.getValidBefore().getTime());
+        }
+
+        IcalSchedule schedule = getSchedule(grant);
+        if (schedule != null && (grant.getValidBefore() == null || time < grant.getValidBefore().getTime())) {
+            // Transitions of the schedule before the validity period starts don't matter.
+            long from = (grant.getValidFrom() != null) ? Math.max(time, grant.getValidFrom().getTime() - 1) : time;
+            res = Math.min(res, schedule.getNextTransition(from));
+        }
+        return res;
+    }
+
+    /**
+     * Returns the grant's compiled time restriction, or null if it has none, or it can't be
+     * evaluated.
+     */
+    private synchronized IcalSchedule getSchedule(ApplicationGrantDto grant) {
+        String ical = grant.getTimeRestrictionIcal();
+        if (ical == null) {
+            return null;
+        }
+
+        if (schedules.containsKey(ical)) {
+            return schedules.get(ical);
+        }
+
+        IcalSchedule schedule;
+        try {
+            schedule = IcalSchedule.parse(ical);
+        } catch (ParseException e) {
+            Log.w(TAG, "Can't evaluate time restriction of grant " + grant.getId() + ", treating it as unrestricted.", e);
+            schedule = null;
+        }
+        schedules.put(ical, schedule);
+        return schedule;
+    }
+}
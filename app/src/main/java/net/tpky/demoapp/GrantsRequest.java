@@ -0,0 +1,122 @@
+package net.tpky.demoapp;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Volley request that queries the sample server for application grant information.
+ *
+ * The request is revalidated against the given {@link GrantCache}: if all requested grants are
+ * cached, the validators of the previous response are sent along and a 304 Not Modified response
+ * is answered from the cache. Fresh responses are written to the cache. Responses are decoded on
+ * Volley's network thread with a streaming {@link GrantJsonReader}, not in the response callback.
+ *
+ * If grants were evicted from the cache while the request was in flight, a 304 Not Modified
+ * response can't be answered and the request fails with a {@link NotCachedError}. The caller is
+ * expected to retry without revalidation then.
+ */
+class GrantsRequest extends Request<List<ApplicationGrantDto>> {
+
+    /**
+     * Signals that the server answered with 304 Not Modified, but the grants aren't cached
+     * anymore.
+     */
+    static class NotCachedError extends VolleyError {
+        NotCachedError() {
+            super("Not modified, but grants are not cached anymore.");
+        }
+    }
+
+    private final GrantJsonReader grantJsonReader = new GrantJsonReader();
+
+    private final String[] grantIds;
+    private final Map<String, String> headers;
+    private final GrantCache cache;
+    private final boolean revalidate;
+    private final Response.Listener<List<ApplicationGrantDto>> listener;
+
+    GrantsRequest(
+            String url,
+            String[] grantIds,
+            Map<String, String> headers,
+            GrantCache cache,
+            boolean revalidate,
+            Response.Listener<List<ApplicationGrantDto>> listener,
+            Response.ErrorListener errorListener) {
+
+        super(Method.GET, url, errorListener);
+        this.grantIds = grantIds;
+        this.headers = headers;
+        this.cache = cache;
+        this.revalidate = revalidate;
+        this.listener = listener;
+
+        // Caching is taken care of by the GrantCache.
+        setShouldCache(false);
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        Map<String, String> res = new HashMap<>(headers);
+        if (!revalidate) {
+            return res;
+        }
+
+        // getHeaders() is invoked on Volley's network thread, so it is fine to hit the disk here.
+        GrantCache.Validator validator = cache.getValidator(grantIds);
+        if (validator != null) {
+            if (validator.etag != null) {
+                res.put("If-None-Match", validator.etag);
+            }
+            if (validator.lastModified != null) {
+                res.put("If-Modified-Since", validator.lastModified);
+            }
+        }
+
+        return res;
+    }
+
+    @Override
+    protected Response<List<ApplicationGrantDto>> parseNetworkResponse(NetworkResponse response) {
+
+        if (response.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            List<ApplicationGrantDto> cached = cache.revalidate(grantIds);
+            if (cached == null) {
+                return Response.error(new NotCachedError());
+            }
+            return Response.success(cached, null);
+        }
+
+        try {
+            Charset charset = Charset.forName(HttpHeaderParser.parseCharset(response.headers, "utf-8"));
+            List<ApplicationGrantDto> grants = grantJsonReader.readGrants(new ByteArrayInputStream(response.data), charset);
+
+            cache.update(grantIds, new GrantCache.Validator(
+                    response.headers != null ? response.headers.get("ETag") : null,
+                    response.headers != null ? response.headers.get("Last-Modified") : null
+            ), grants);
+
+            return Response.success(grants, null);
+        } catch (IOException | ParseException | IllegalArgumentException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    @Override
+    protected void deliverResponse(List<ApplicationGrantDto> response) {
+        listener.onResponse(response);
+    }
+}
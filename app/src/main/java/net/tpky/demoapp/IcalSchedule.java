@@ -0,0 +1,450 @@
+package net.tpky.demoapp;
+
+import java.text.ParseException;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Compiled form of an iCalendar time restriction, as found in
+ * {@link ApplicationGrantDto#getTimeRestrictionIcal()}.
+ *
+ * The restriction is parsed once into its start, duration and recurrence, which answer whether
+ * access is granted at a given time, and when this changes next, without re-parsing. Supported
+ * are a single event with {@code DTSTART} and either {@code DTEND} or {@code DURATION}, and an
+ * optional {@code RRULE} with {@code FREQ=DAILY} or {@code FREQ=WEEKLY}, {@code INTERVAL},
+ * {@code BYDAY} and {@code UNTIL}. Anything else is rejected with a {@link ParseException}.
+ * Properties are taken from the {@code VEVENT} component, or from the top level if the
+ * restriction consists of bare properties. Other components, like {@code VTIMEZONE}, are ignored.
+ *
+ * Instances are immutable and thread-safe.
+ */
+final class IcalSchedule {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("uuuuMMdd'T'HHmmss", Locale.ROOT);
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    // Guards against schedules with back-to-back occurrences, which never end.
+    private static final int MAX_CHAINED_OCCURRENCES = 1000;
+
+    private enum Frequency {
+        NONE,
+        DAILY,
+        WEEKLY
+    }
+
+    private final ZoneId zone;
+    private final LocalDate startDate;
+    private final LocalTime startTime;
+    private final long startMs;
+    private final long durationMs;
+    private final Frequency frequency;
+    private final int interval;
+
+    // Bit (dayOfWeek - 1) is set for each day of the week occurrences may start on, 0 for any.
+    private final int dayMask;
+
+    // Occurrences starting after this time are excluded.
+    private final long untilMs;
+
+    // How many days before a given day an occurrence covering it may have started.
+    private final int maxSpanDays;
+
+    private IcalSchedule(ZoneId zone, LocalDateTime start, long durationMs, Frequency frequency, int interval, int dayMask, long untilMs) {
+        this.zone = zone;
+        this.startDate = start.toLocalDate();
+        this.startTime = start.toLocalTime();
+        this.startMs = start.atZone(zone).toInstant().toEpochMilli();
+        this.durationMs = durationMs;
+        this.frequency = frequency;
+        this.interval = interval;
+        this.dayMask = dayMask;
+        this.untilMs = untilMs;
+        this.maxSpanDays = (int) (durationMs / MILLIS_PER_DAY) + 1;
+    }
+
+    /**
+     * Returns whether the given time is within one of the schedule's occurrences.
+     */
+    boolean isActiveAt(long time) {
+        return getActiveUntil(time) > time;
+    }
+
+    /**
+     * Returns the next time after the given time at which the schedule becomes active or inactive,
+     * or {@link Long#MAX_VALUE} if it never changes again.
+     */
+    long getNextTransition(long time) {
+        long end = getActiveUntil(time);
+        if (end <= time) {
+            return getNextStart(time);
+        }
+
+        // Skip over occurrences starting when or before the previous one ends.
+        for (int i = 0; i < MAX_CHAINED_OCCURRENCES; i++) {
+            long next = getActiveUntil(end);
+            if (next <= end) {
+                return end;
+            }
+            end = next;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the end of the latest occurrence covering the given time, or {@link Long#MIN_VALUE}
+     * if there is none.
+     */
+    private long getActiveUntil(long time) {
+        long res = Long.MIN_VALUE;
+        if (time < startMs || durationMs <= 0) {
+            return res;
+        }
+
+        LocalDate day = Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+        for (int i = maxSpanDays; i >= 0; i--) {
+            LocalDate candidate = day.minusDays(i);
+            if (!isOccurrenceDay(candidate)) {
+                continue;
+            }
+            long start = getOccurrenceStart(candidate);
+            if (start <= time && start <= untilMs && time < start + durationMs) {
+                res = Math.max(res, start + durationMs);
+            }
+        }
+        return res;
+    }
+
+    private long getNextStart(long time) {
+        if (durationMs <= 0) {
+            return Long.MAX_VALUE;
+        }
+
+        LocalDate day = Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+        if (day.isBefore(startDate)) {
+            day = startDate;
+        }
+
+        // Any recurrence repeats within this many days.
+        int horizon = (frequency == Frequency.NONE) ? 1 : 7 * interval + 1;
+        for (int i = 0; i <= horizon; i++) {
+            LocalDate candidate = day.plusDays(i);
+            if (!isOccurrenceDay(candidate)) {
+                continue;
+            }
+            long start = getOccurrenceStart(candidate);
+            if (start > untilMs) {
+                return Long.MAX_VALUE;
+            }
+            if (start > time) {
+                return start;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private boolean isOccurrenceDay(LocalDate day) {
+        long days = day.toEpochDay() - startDate.toEpochDay();
+        if (days < 0) {
+            return false;
+        }
+
+        switch (frequency) {
+            case DAILY:
+                return days % interval == 0 && (dayMask == 0 || hasDay(day.getDayOfWeek()));
+
+            case WEEKLY:
+                long weeks = Math.floorDiv(getWeekStart(day) - getWeekStart(startDate), 7);
+                return weeks % interval == 0 && hasDay(day.getDayOfWeek());
+
+            default:
+                return days == 0;
+        }
+    }
+
+    private boolean hasDay(DayOfWeek dayOfWeek) {
+        return (dayMask & (1 << (dayOfWeek.getValue() - 1))) != 0;
+    }
+
+    private long getOccurrenceStart(LocalDate day) {
+        return day.atTime(startTime).atZone(zone).toInstant().toEpochMilli();
+    }
+
+    private static long getWeekStart(LocalDate day) {
+        return day.toEpochDay() - (day.getDayOfWeek().getValue() - 1);
+    }
+
+    /**
+     * Parses the given iCalendar time restriction.
+     *
+     * @throws ParseException if the restriction is malformed or uses unsupported features.
+     */
+    static IcalSchedule parse(String ical) throws ParseException {
+        ZoneId zone = null;
+        LocalDateTime start = null;
+        String startValue = null;
+        LocalDateTime end = null;
+        ZoneId endZone = null;
+        Duration duration = null;
+        String rrule = null;
+
+        // Unfold continuation lines, see RFC 5545, section 3.1.
+        String unfolded = ical.replace("\r\n ", "").replace("\r\n\t", "").replace("\n ", "").replace("\n\t", "");
+        int events = 0;
+
+        // The components enclosing the current line, innermost first.
+        Deque<String> components = new ArrayDeque<>();
+
+        for (String line : unfolded.split("\r?\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                throw new ParseException("Malformed line: " + line, 0);
+            }
+            String[] nameAndParams = line.substring(0, colon).split(";");
+            String name = nameAndParams[0].toUpperCase(Locale.ROOT);
+            String value = line.substring(colon + 1);
+
+            if ("BEGIN".equals(name)) {
+                String component = value.toUpperCase(Locale.ROOT);
+                if ("VEVENT".equals(component) && ++events > 1) {
+                    throw new ParseException("Multiple events are not supported.", 0);
+                }
+                components.push(component);
+                continue;
+            }
+            if ("END".equals(name)) {
+                if (components.isEmpty() || !components.pop().equalsIgnoreCase(value)) {
+                    throw new ParseException("Unexpected END:" + value, 0);
+                }
+                continue;
+            }
+
+            // Properties of other components, like the DTSTART and RRULE of a VTIMEZONE's
+            // STANDARD and DAYLIGHT blocks, don't describe the event.
+            if (!components.isEmpty() && !"VEVENT".equals(components.peek())) {
+                continue;
+            }
+
+            switch (name) {
+
+                case "DTSTART":
+                    zone = parseZone(nameAndParams, value);
+                    start = parseDateTime(value);
+                    startValue = value;
+                    break;
+
+                case "DTEND":
+                    endZone = parseZone(nameAndParams, value);
+                    end = parseDateTime(value);
+                    break;
+
+                case "DURATION":
+                    duration = parseDuration(value);
+                    break;
+
+                case "RRULE":
+                    if (rrule != null) {
+                        throw new ParseException("Multiple recurrence rules are not supported.", 0);
+                    }
+                    rrule = value;
+                    break;
+
+                case "RDATE":
+                case "EXDATE":
+                case "EXRULE":
+                    throw new ParseException(name + " is not supported.", 0);
+
+                default:
+                    // Other properties don't affect the schedule.
+                    break;
+            }
+        }
+
+        if (!components.isEmpty()) {
+            throw new ParseException(components.peek() + " is not terminated.", 0);
+        }
+        if (start == null) {
+            throw new ParseException("DTSTART is missing.", 0);
+        }
+
+        long durationMs;
+        if (duration != null) {
+            durationMs = duration.toMillis();
+        } else if (end != null) {
+            durationMs = end.atZone(endZone).toInstant().toEpochMilli() - start.atZone(zone).toInstant().toEpochMilli();
+        } else if (isDate(startValue)) {
+            // A date without end lasts the whole day, see RFC 5545, section 3.6.1.
+            durationMs = MILLIS_PER_DAY;
+        } else {
+            // A date-time without end would end at its start, granting access at no time.
+            throw new ParseException("DTEND or DURATION is missing.", 0);
+        }
+
+        Frequency frequency = Frequency.NONE;
+        int interval = 1;
+        int dayMask = 0;
+        long untilMs = Long.MAX_VALUE;
+
+        if (rrule != null) {
+            for (String part : rrule.split(";")) {
+                int eq = part.indexOf('=');
+                if (eq < 0) {
+                    throw new ParseException("Malformed recurrence rule: " + rrule, 0);
+                }
+                String key = part.substring(0, eq).toUpperCase(Locale.ROOT);
+                String value = part.substring(eq + 1).toUpperCase(Locale.ROOT);
+
+                switch (key) {
+                    case "FREQ":
+                        if ("DAILY".equals(value)) {
+                            frequency = Frequency.DAILY;
+                        } else if ("WEEKLY".equals(value)) {
+                            frequency = Frequency.WEEKLY;
+                        } else {
+                            throw new ParseException("Unsupported frequency: " + value, 0);
+                        }
+                        break;
+
+                    case "INTERVAL":
+                        try {
+                            interval = Integer.parseInt(value);
+                        } catch (NumberFormatException e) {
+                            throw new ParseException("Malformed interval: " + value, 0);
+                        }
+                        if (interval < 1) {
+                            throw new ParseException("Malformed interval: " + value, 0);
+                        }
+                        break;
+
+                    case "BYDAY":
+                        for (String day : value.split(",")) {
+                            dayMask |= 1 << (parseDayOfWeek(day).getValue() - 1);
+                        }
+                        break;
+
+                    case "UNTIL":
+                        untilMs = parseUntil(value, zone);
+                        break;
+
+                    case "WKST":
+                        if (!"MO".equals(value)) {
+                            throw new ParseException("Unsupported week start: " + value, 0);
+                        }
+                        break;
+
+                    default:
+                        throw new ParseException("Unsupported recurrence rule part: " + key, 0);
+                }
+            }
+
+            if (frequency == Frequency.NONE) {
+                throw new ParseException("FREQ is missing.", 0);
+            }
+            if (frequency == Frequency.WEEKLY && dayMask == 0) {
+                dayMask = 1 << (start.getDayOfWeek().getValue() - 1);
+            }
+        }
+
+        return new IcalSchedule(zone, start, durationMs, frequency, interval, dayMask, untilMs);
+    }
+
+    /**
+     * Returns the zone of a date-time property, which is UTC for values ending in {@code Z}, the
+     * zone given by the {@code TZID} parameter, or the device's zone for floating times.
+     */
+    private static ZoneId parseZone(String[] nameAndParams, String value) throws ParseException {
+        if (value.endsWith("Z")) {
+            return ZoneOffset.UTC;
+        }
+        for (int i = 1; i < nameAndParams.length; i++) {
+            String param = nameAndParams[i];
+            if (param.regionMatches(true, 0, "TZID=", 0, 5)) {
+                try {
+                    return ZoneId.of(param.substring(5).replace("\"", ""));
+                } catch (DateTimeException e) {
+                    throw new ParseException("Unknown time zone: " + param, 0);
+                }
+            }
+        }
+        return ZoneId.systemDefault();
+    }
+
+    private static boolean isDate(String value) {
+        return value.length() == 8;
+    }
+
+    private static LocalDateTime parseDateTime(String value) throws ParseException {
+        String s = value.endsWith("Z") ? value.substring(0, value.length() - 1) : value;
+        try {
+            if (isDate(s)) {
+                return LocalDate.parse(s, DATE_FORMAT).atStartOfDay();
+            }
+            return LocalDateTime.parse(s, DATE_TIME_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new ParseException("Malformed date-time: " + value, 0);
+        }
+    }
+
+    private static long parseUntil(String value, ZoneId zone) throws ParseException {
+        LocalDateTime until = parseDateTime(value);
+        ZoneId untilZone = value.endsWith("Z") ? ZoneOffset.UTC : zone;
+        if (isDate(value)) {
+            // A date includes occurrences starting at any time that day.
+            return until.plusDays(1).atZone(untilZone).toInstant().toEpochMilli() - 1;
+        }
+        return until.atZone(untilZone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Parses a duration like {@code PT8H}, {@code P1D} or {@code P2W}.
+     */
+    private static Duration parseDuration(String value) throws ParseException {
+        try {
+            if (value.endsWith("W")) {
+                return Duration.ofDays(7 * Long.parseLong(value.substring(value.indexOf('P') + 1, value.length() - 1)));
+            }
+            return Duration.parse(value);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new ParseException("Malformed duration: " + value, 0);
+        }
+    }
+
+    private static DayOfWeek parseDayOfWeek(String day) throws ParseException {
+        switch (day) {
+            case "MO":
+                return DayOfWeek.MONDAY;
+            case "TU":
+                return DayOfWeek.TUESDAY;
+            case "WE":
+                return DayOfWeek.WEDNESDAY;
+            case "TH":
+                return DayOfWeek.THURSDAY;
+            case "FR":
+                return DayOfWeek.FRIDAY;
+            case "SA":
+                return DayOfWeek.SATURDAY;
+            case "SU":
+                return DayOfWeek.SUNDAY;
+            default:
+                // Includes ordinal days like 1MO, which only apply to monthly and yearly rules.
+                throw new ParseException("Unsupported day: " + day, 0);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package net.tpky.demoapp;
+
+import java.text.ParseException;
+
+/**
+ * Parser for the ISO-8601 timestamps used by the sample server, e.g.
+ * {@code 2021-02-17T16:10:00.000+01:00} or {@code 2021-02-17T15:10:00.000Z}.
+ *
+ * Unlike {@link java.text.SimpleDateFormat}, the parser is stateless and therefore thread-safe,
+ * and it doesn't allocate unless the input is malformed. The fraction of seconds is optional and
+ * may have up to nine digits; digits beyond milliseconds are truncated.
+ */
+final class IsoDateParser {
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    private IsoDateParser() {
+    }
+
+    /**
+     * Parses the given timestamp.
+     *
+     * @param s the timestamp in the format {@code yyyy-MM-dd'T'HH:mm:ss[.S...]XXX}.
+     * @return the number of milliseconds since the epoch.
+     * @throws ParseException if the timestamp is malformed.
+     */
+    static long parse(CharSequence s) throws ParseException {
+        int len = s.length();
+        if (len < 20) {
+            throw new ParseException("Unparseable date: \"" + s + "\"", 0);
+        }
+
+        int year = parseDigits(s, 0, 4);
+        expect(s, 4, '-');
+        int month = parseDigits(s, 5, 2);
+        expect(s, 7, '-');
+        int day = parseDigits(s, 8, 2);
+        expect(s, 10, 'T');
+        int hour = parseDigits(s, 11, 2);
+        expect(s, 13, ':');
+        int minute = parseDigits(s, 14, 2);
+        expect(s, 16, ':');
+        int second = parseDigits(s, 17, 2);
+
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            throw new ParseException("Unparseable date: \"" + s + "\"", 0);
+        }
+
+        int pos = 19;
+        int millis = 0;
+        if (s.charAt(pos) == '.') {
+            pos++;
+            int digits = 0;
+            while (pos < len && isDigit(s.charAt(pos))) {
+                if (digits < 3) {
+                    millis = millis * 10 + (s.charAt(pos) - '0');
+                }
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || digits > 9) {
+                throw new ParseException("Unparseable date: \"" + s + "\"", pos);
+            }
+            for (; digits < 3; digits++) {
+                millis *= 10;
+            }
+        }
+
+        long offsetMillis = parseOffset(s, pos);
+
+        return toEpochDay(year, month, day) * MILLIS_PER_DAY
+                + hour * MILLIS_PER_HOUR
+                + minute * MILLIS_PER_MINUTE
+                + second * MILLIS_PER_SECOND
+                + millis
+                - offsetMillis;
+    }
+
+    /**
+     * Parses the zone offset starting at the given position, which is either {@code Z} or one of
+     * {@code +hh:mm}, {@code +hhmm} and {@code +hh}.
+     */
+    private static long parseOffset(CharSequence s, int pos) throws ParseException {
+        int len = s.length();
+        if (pos >= len) {
+            throw new ParseException("Unparseable date: \"" + s + "\"", pos);
+        }
+
+        char c = s.charAt(pos);
+        if (c == 'Z') {
+            if (pos + 1 != len) {
+                throw new ParseException("Unparseable date: \"" + s + "\"", pos + 1);
+            }
+            return 0;
+        }
+
+        int sign;
+        if (c == '+') {
+            sign = 1;
+        } else if (c == '-') {
+            sign = -1;
+        } else {
+            throw new ParseException("Unparseable date: \"" + s + "\"", pos);
+        }
+
+        int hours = parseDigits(s, pos + 1, 2);
+        int minutes;
+        switch (len - pos) {
+            case 3:
+                minutes = 0;
+                break;
+            case 5:
+                minutes = parseDigits(s, pos + 3, 2);
+                break;
+            case 6:
+                expect(s, pos + 3, ':');
+                minutes = parseDigits(s, pos + 4, 2);
+                break;
+            default:
+                throw new ParseException("Unparseable date: \"" + s + "\"", pos);
+        }
+
+        if (hours > 18 || minutes > 59) {
+            throw new ParseException("Unparseable date: \"" + s + "\"", pos);
+        }
+
+        return sign * (hours * MILLIS_PER_HOUR + minutes * MILLIS_PER_MINUTE);
+    }
+
+    private static int parseDigits(CharSequence s, int pos, int count) throws ParseException {
+        if (pos + count > s.length()) {
+            throw new ParseException("Unparseable date: \"" + s + "\"", pos);
+        }
+        int res = 0;
+        for (int i = pos; i < pos + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                throw new ParseException("Unparseable date: \"" + s + "\"", i);
+            }
+            res = res * 10 + (c - '0');
+        }
+        return res;
+    }
+
+    private static void expect(CharSequence s, int pos, char expected) throws ParseException {
+        if (s.charAt(pos) != expected) {
+            throw new ParseException("Unparseable date: \"" + s + "\"", pos);
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 for the given date in the proleptic Gregorian
+     * calendar.
+     */
+    private static long toEpochDay(int year, int month, int day) {
+        // Shift the year to start in March, so that the leap day is the last day of the year.
+        long y = (month <= 2) ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -1,158 +1,203 @@
 package net.tpky.demoapp;
 
-import android.app.Activity;
 import android.content.Context;
-import android.graphics.Color;
-import android.util.Log;
 import android.view.LayoutInflater;
-import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
-import android.widget.TextView;
 
-import androidx.appcompat.widget.AppCompatButton;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 
-import com.tapkey.mobile.concurrent.Async;
 import com.tapkey.mobile.concurrent.CancellationToken;
-import com.tapkey.mobile.concurrent.CancellationTokens;
-import com.tapkey.mobile.concurrent.CancellationTokenSource;
 import com.tapkey.mobile.concurrent.Promise;
-import com.tapkey.mobile.model.KeyDetails;
-import com.tapkey.mobile.utils.Func1;
-import com.tapkey.mobile.utils.Tuple;
 
-public class KeyItemAdapter extends ArrayAdapter<Tuple<KeyDetails, ApplicationGrantDto>> {
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RecyclerView adapter for the key list.
+ *
+ * New lists of {@link KeyRowViewModel}s are passed to {@link #submitList(java.util.List)}; the
+ * difference to the current list is computed on a background thread and only the rows that
+ * actually changed are rebound. Rows are identified by their grant ID, a hash of which is also
+ * the adapter's stable ID. The view models are formatted already, binding a row doesn't allocate.
+ * When nearby locks change, or keys become usable or unusable, only the affected rows are
+ * rebound, see {@link #updateNearbyLocks()} and {@link #updateUsability()}.
+ */
+public class KeyItemAdapter extends ListAdapter<KeyRowViewModel, KeyItemViewHolder> {
 
     private final static String TAG = KeyItemAdapter.class.getSimpleName();
 
     public interface KeyItemAdapterHandler {
         boolean isLockNearby(String physicalLockId);
 
-        Promise<Boolean> triggerLock(String physicalLockId, CancellationToken ct);
+        boolean isKeyUsable(String grantId);
+
+        TriggerTrace startTriggerTrace(String physicalLockId);
+
+        Promise<Boolean> triggerLock(String physicalLockId, TriggerTrace trace, CancellationToken ct);
     }
 
+    private static final DiffUtil.ItemCallback<KeyRowViewModel> DIFF_CALLBACK = new DiffUtil.ItemCallback<KeyRowViewModel>() {
+
+        @Override
+        public boolean areItemsTheSame(@NonNull KeyRowViewModel oldItem, @NonNull KeyRowViewModel newItem) {
+            return oldItem.grantId.equals(newItem.grantId);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull KeyRowViewModel oldItem, @NonNull KeyRowViewModel newItem) {
+            return oldItem.equals(newItem);
+        }
+    };
+
+    private final LayoutInflater inflater;
     private final KeyItemAdapterHandler handler;
 
+    // Payload of row updates, which only concern whether the row's lock is nearby, or whether its
+    // key is usable.
+    private static final Object PAYLOAD_STATE = new Object();
+
+    // Positions of the current list's rows by physical lock ID, and the locks that were nearby
+    // when last checked. Only accessed on the UI thread.
+    private final Map<String, List<Integer>> positionsByLockId = new HashMap<>();
+    private final Set<String> nearbyLockIds = new HashSet<>();
+
+    // Positions of the current list's rows by grant ID, and the keys that weren't usable when last
+    // checked. Only accessed on the UI thread.
+    private final Map<String, Integer> positionByGrantId = new HashMap<>();
+    private final Set<String> unusableGrantIds = new HashSet<>();
+
     KeyItemAdapter(Context context, KeyItemAdapterHandler keyItemAdapterHandler) {
-        super(context, R.layout.key_item);
+        super(DIFF_CALLBACK);
+        this.inflater = LayoutInflater.from(context);
         this.handler = keyItemAdapterHandler;
+        setHasStableIds(true);
     }
 
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-
-
-        LayoutInflater mInflater = (LayoutInflater) getContext().getSystemService(Activity.LAYOUT_INFLATER_SERVICE);
-        final View viewToUse = (convertView == null) ? mInflater.inflate(R.layout.key_item, null) : convertView;
-        final TextView lockTitleTextView = viewToUse.findViewById(R.id.key_item__lock_title);
-        final TextView issuerTextView = viewToUse.findViewById(R.id.key_item__issuer);
-        final TextView locationTextView = viewToUse.findViewById(R.id.key_item__location);
-        final TextView granteeTextView = viewToUse.findViewById(R.id.key_item__grantee);
-        final TextView accessRestrictionTextView = viewToUse.findViewById(R.id.key_item__access_restriction);
-        final AppCompatButton triggerButton = viewToUse.findViewById(R.id.key_item__trigger_button);
-        final AppCompatButton cancelButton = viewToUse.findViewById(R.id.key_item__cancel_trigger_button);
-
-        final Tuple<KeyDetails, ApplicationGrantDto> item = getItem(position);
-        assert item != null;
-        final ApplicationGrantDto grant = item.getValue2();
-        final KeyDetails key = item.getValue1();
-        assert grant != null;
-        assert key != null;
-
-        if (grant.getLockTitle() != null) {
-            lockTitleTextView.setText(grant.getLockTitle());
-        } else {
-            lockTitleTextView.setText(getContext().getString(R.string.key_item__unknown_lock));
-        }
+    public long getItemId(int position) {
+        return getStableId(getItem(position).grantId);
+    }
 
-        if (grant.getIssuer() != null) {
-            issuerTextView.setText(getContext().getString(R.string.key_item__issued_by, grant.getIssuer()));
-        } else {
-            issuerTextView.setText(getContext().getString(R.string.key_item__unknown_issuer));
+    /**
+     * Derives the stable ID of a row from its grant ID, using the 64-bit FNV-1a hash of the grant
+     * ID's characters. Unlike handing out IDs from a map, this doesn't keep state that grows with
+     * every grant ever shown, e.g. across sign-outs.
+     */
+    static long getStableId(String grantId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < grantId.length(); i++) {
+            hash ^= grantId.charAt(i);
+            hash *= 0x100000001b3L;
         }
 
-        if (grant.getLockLocation() != null) {
-            locationTextView.setText(getContext().getString(R.string.key_item__location, grant.getLockLocation()));
-        } else {
-            locationTextView.setText(getContext().getString(R.string.key_item__unknown_location));
+        // -1 is RecyclerView.NO_ID.
+        return hash != -1 ? hash : 0;
+    }
+
+    @NonNull
+    @Override
+    public KeyItemViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new KeyItemViewHolder(inflater.inflate(R.layout.key_item, parent, false), handler);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull KeyItemViewHolder holder, int position) {
+        KeyRowViewModel row = getItem(position);
+        holder.bind(row, nearbyLockIds.contains(row.physicalLockId), !unusableGrantIds.contains(row.grantId));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull KeyItemViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty() || !onlyStateChanged(payloads)) {
+            onBindViewHolder(holder, position);
+            return;
         }
+        KeyRowViewModel row = getItem(position);
+        holder.bindState(nearbyLockIds.contains(row.physicalLockId), !unusableGrantIds.contains(row.grantId));
+    }
 
-        if (grant.getValidFrom() != null || grant.getValidBefore() != null || grant.getTimeRestrictionIcal() != null) {
-            accessRestrictionTextView.setText(R.string.key_item__access_restricted);
-        } else {
-            accessRestrictionTextView.setText(R.string.key_item__access_unrestricted);
+    @Override
+    public void onCurrentListChanged(@NonNull List<KeyRowViewModel> previousList, @NonNull List<KeyRowViewModel> currentList) {
+        positionsByLockId.clear();
+        positionByGrantId.clear();
+        for (int i = 0; i < currentList.size(); i++) {
+            positionByGrantId.put(currentList.get(i).grantId, i);
+
+            String physicalLockId = currentList.get(i).physicalLockId;
+            if (physicalLockId == null) {
+                continue;
+            }
+            List<Integer> positions = positionsByLockId.get(physicalLockId);
+            if (positions == null) {
+                positions = new ArrayList<>(1);
+                positionsByLockId.put(physicalLockId, positions);
+            }
+            positions.add(i);
         }
 
-        if (grant.getGranteeFirstName() != null || grant.getGranteeLastName() != null) {
-            granteeTextView.setText(getContext().getString(
-                    R.string.key_item_grantee,
-                    String.format(
-                            "%1$s %2$s",
-                            grant.getGranteeFirstName(),
-                            grant.getGranteeLastName())
-            ));
+        nearbyLockIds.retainAll(positionsByLockId.keySet());
+        unusableGrantIds.retainAll(positionByGrantId.keySet());
+        updateNearbyLocks();
+        updateUsability();
+    }
+
+    /**
+     * Checks which of the listed locks are nearby and rebinds only the rows of locks that came
+     * into or went out of range since the previous check.
+     */
+    void updateNearbyLocks() {
+        for (Map.Entry<String, List<Integer>> entry : positionsByLockId.entrySet()) {
+            String physicalLockId = entry.getKey();
+            boolean nearby = handler.isLockNearby(physicalLockId);
+            boolean changed = nearby ? nearbyLockIds.add(physicalLockId) : nearbyLockIds.remove(physicalLockId);
+            if (!changed) {
+                continue;
+            }
+            for (Integer position : entry.getValue()) {
+                notifyItemChanged(position, PAYLOAD_STATE);
+            }
         }
+    }
 
-        if (!handler.isLockNearby(grant.getPhysicalLockId())) {
-            triggerButton.setVisibility(View.GONE);
-            cancelButton.setVisibility(View.GONE);
-            triggerButton.setOnClickListener(null);
-            cancelButton.setOnClickListener(null);
-        } else {
-            triggerButton.setOnClickListener(view -> {
-
-                CancellationTokenSource cts = new CancellationTokenSource();
-
-                triggerButton.setEnabled(false);
-                triggerButton.setVisibility(View.GONE);
-                cancelButton.setVisibility(View.VISIBLE);
-                cancelButton.setEnabled(true);
-
-                cancelButton.setOnClickListener(ignore -> {
-                    cts.requestCancellation();
-                    cancelButton.setEnabled(false);
-                });
-
-                // asynchronously trigger an unlock command
-                handler.triggerLock(grant.getPhysicalLockId(), CancellationTokens.withTimeout(cts.getToken(), 15000))
-
-                        // Catch errors and return false to indicate failure
-                        .catchOnUi(e -> {
-                            Log.e(TAG, "Triggering lock failed.", e);
-                            return false;
-                        })
-
-                        // when done, continue on the UI thread
-                        .continueOnUi((Func1<Boolean, Void, Exception>) success -> {
-
-                            // When trigger lock was successfully set background color to green
-                            // otherwise set background color to red
-                            viewToUse.setBackgroundColor((success) ? getContext().getColor(R.color.success) : cts.getToken().isCancellationRequested() ? Color.TRANSPARENT : getContext().getColor(R.color.error));
-
-                            // Trigger lock completed, cancelling is not possible anymore.
-                            cancelButton.setVisibility(View.GONE);
-
-                            // Reset background after a delay
-                            Async.delayAsync(3000).continueOnUi((Func1<Void, Void, Exception>) aVoid -> {
-                                viewToUse.setBackgroundColor(Color.TRANSPARENT);
-                                // enable button to allow another trigger
-                                triggerButton.setEnabled(true);
-                                triggerButton.setVisibility(View.VISIBLE);
-                                return null;
-                            });
-
-                            return null;
-                        })
-
-                        // make sure, we don't miss any exceptions.
-                        .conclude();
-            });
-
-            triggerButton.setVisibility(View.VISIBLE);
-            triggerButton.setEnabled(true);
-            cancelButton.setVisibility(View.GONE);
+    /**
+     * Checks which of the listed keys are usable and rebinds only the rows of keys that became
+     * usable or unusable since the previous check.
+     */
+    void updateUsability() {
+        updateUsability(positionByGrantId.keySet());
+    }
+
+    /**
+     * Checks whether the keys for the given grants are usable and rebinds only the rows of keys
+     * that became usable or unusable since the previous check. Grants not listed are ignored.
+     */
+    void updateUsability(Collection<String> grantIds) {
+        for (String grantId : grantIds) {
+            Integer position = positionByGrantId.get(grantId);
+            if (position == null) {
+                continue;
+            }
+            boolean usable = handler.isKeyUsable(grantId);
+            boolean changed = usable ? unusableGrantIds.remove(grantId) : unusableGrantIds.add(grantId);
+            if (changed) {
+                notifyItemChanged(position, PAYLOAD_STATE);
+            }
         }
+    }
 
-        return viewToUse;
+    private static boolean onlyStateChanged(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_STATE) {
+                return false;
+            }
+        }
+        return true;
     }
 }
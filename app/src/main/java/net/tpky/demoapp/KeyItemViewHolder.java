@@ -0,0 +1,183 @@
+package net.tpky.demoapp;
+
+import android.graphics.Color;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.appcompat.widget.AppCompatButton;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.tapkey.mobile.concurrent.Async;
+import com.tapkey.mobile.concurrent.CancellationTokenSource;
+import com.tapkey.mobile.utils.Func1;
+
+/**
+ * Holds the views of a key list row.
+ *
+ * View references are looked up and click listeners are created once per holder, binding a row
+ * only assigns the strings of a precomputed {@link KeyRowViewModel}. A trigger in progress is
+ * tracked by the holder, so that rebinding the row, e.g. because nearby locks changed, doesn't
+ * reset its state.
+ */
+class KeyItemViewHolder extends RecyclerView.ViewHolder {
+
+    private static final String TAG = KeyItemViewHolder.class.getSimpleName();
+
+    private static final long RESULT_DISPLAY_MS = 3000;
+
+    // Alpha of rows whose key can't be used right now.
+    private static final float UNUSABLE_ALPHA = 0.5f;
+
+    private final KeyItemAdapter.KeyItemAdapterHandler handler;
+
+    private final TextView lockTitleTextView;
+    private final TextView issuerTextView;
+    private final TextView locationTextView;
+    private final TextView granteeTextView;
+    private final TextView accessRestrictionTextView;
+    private final AppCompatButton triggerButton;
+    private final AppCompatButton cancelButton;
+
+    private final int successColor;
+    private final int errorColor;
+
+    // The grant ID and physical lock ID of the bound row.
+    private String grantId;
+    private String physicalLockId;
+
+    // The lock being triggered, or whose trigger result is being displayed, if any.
+    private String busyPhysicalLockId;
+    private CancellationTokenSource triggerCancellation;
+
+    KeyItemViewHolder(View itemView, KeyItemAdapter.KeyItemAdapterHandler handler) {
+        super(itemView);
+        this.handler = handler;
+
+        lockTitleTextView = itemView.findViewById(R.id.key_item__lock_title);
+        issuerTextView = itemView.findViewById(R.id.key_item__issuer);
+        locationTextView = itemView.findViewById(R.id.key_item__location);
+        granteeTextView = itemView.findViewById(R.id.key_item__grantee);
+        accessRestrictionTextView = itemView.findViewById(R.id.key_item__access_restriction);
+        triggerButton = itemView.findViewById(R.id.key_item__trigger_button);
+        cancelButton = itemView.findViewById(R.id.key_item__cancel_trigger_button);
+
+        successColor = itemView.getContext().getColor(R.color.success);
+        errorColor = itemView.getContext().getColor(R.color.error);
+
+        triggerButton.setOnClickListener(view -> onTriggerClicked());
+        cancelButton.setOnClickListener(view -> onCancelClicked());
+    }
+
+    void bind(KeyRowViewModel row, boolean lockNearby, boolean keyUsable) {
+        lockTitleTextView.setText(row.lockTitle);
+        issuerTextView.setText(row.issuer);
+        locationTextView.setText(row.location);
+        accessRestrictionTextView.setText(row.accessRestriction);
+
+        if (row.grantee != null) {
+            granteeTextView.setText(row.grantee);
+            granteeTextView.setVisibility(View.VISIBLE);
+        } else {
+            granteeTextView.setVisibility(View.GONE);
+        }
+
+        grantId = row.grantId;
+        physicalLockId = row.physicalLockId;
+        bindState(lockNearby, keyUsable);
+    }
+
+    /**
+     * Updates the row after the bound lock came into or went out of range, or the bound key
+     * became usable or unusable. Keys that can't be used right now are greyed out and can't be
+     * triggered, as the lock would refuse them anyway.
+     */
+    void bindState(boolean lockNearby, boolean keyUsable) {
+        itemView.setAlpha(keyUsable ? 1f : UNUSABLE_ALPHA);
+
+        if (isBusy()) {
+            // Keep showing the progress or result of the trigger.
+            return;
+        }
+
+        boolean triggerable = lockNearby && keyUsable;
+        itemView.setBackgroundColor(Color.TRANSPARENT);
+        cancelButton.setVisibility(View.GONE);
+        triggerButton.setVisibility(triggerable ? View.VISIBLE : View.GONE);
+
+        // The holder tracks a single trigger, a row recycled during a trigger has to wait for it.
+        triggerButton.setEnabled(triggerable && busyPhysicalLockId == null);
+    }
+
+    private boolean isBusy() {
+        return busyPhysicalLockId != null && busyPhysicalLockId.equals(physicalLockId);
+    }
+
+    private void onTriggerClicked() {
+        if (busyPhysicalLockId != null) {
+            return;
+        }
+
+        String lockId = physicalLockId;
+        TriggerTrace trace = handler.startTriggerTrace(lockId);
+        CancellationTokenSource cts = new CancellationTokenSource();
+        busyPhysicalLockId = lockId;
+        triggerCancellation = cts;
+
+        triggerButton.setEnabled(false);
+        triggerButton.setVisibility(View.GONE);
+        cancelButton.setVisibility(View.VISIBLE);
+        cancelButton.setEnabled(true);
+
+        // asynchronously trigger an unlock command, the handler decides how long it may take
+        handler.triggerLock(lockId, trace, cts.getToken())
+
+                // Catch errors and return false to indicate failure
+                .catchOnUi(e -> {
+                    Log.e(TAG, "Triggering lock failed.", e);
+                    return false;
+                })
+
+                // when done, continue on the UI thread
+                .continueOnUi((Func1<Boolean, Void, Exception>) success -> {
+                    triggerCancellation = null;
+
+                    if (isBusy()) {
+                        // When trigger lock was successfully set background color to green
+                        // otherwise set background color to red
+                        itemView.setBackgroundColor(success ? successColor : cts.getToken().isCancellationRequested() ? Color.TRANSPARENT : errorColor);
+
+                        // Trigger lock completed, cancelling is not possible anymore.
+                        cancelButton.setVisibility(View.GONE);
+                    }
+
+                    // The result is visible once the next frame has been drawn.
+                    itemView.postOnAnimation(() -> trace.finish(success));
+
+                    // Reset background after a delay
+                    Async.delayAsync(RESULT_DISPLAY_MS).continueOnUi((Func1<Void, Void, Exception>) aVoid -> {
+                        busyPhysicalLockId = null;
+                        itemView.setBackgroundColor(Color.TRANSPARENT);
+
+                        // enable button to allow another trigger, the holder might have been
+                        // rebound to another lock in the meantime.
+                        boolean triggerable = handler.isLockNearby(physicalLockId) && handler.isKeyUsable(grantId);
+                        triggerButton.setVisibility(triggerable ? View.VISIBLE : View.GONE);
+                        triggerButton.setEnabled(triggerable);
+                        return null;
+                    }).conclude();
+
+                    return null;
+                })
+
+                // make sure, we don't miss any exceptions.
+                .conclude();
+    }
+
+    private void onCancelClicked() {
+        if (triggerCancellation != null && isBusy()) {
+            triggerCancellation.requestCancellation();
+            cancelButton.setEnabled(false);
+        }
+    }
+}
@@ -6,10 +6,16 @@ import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.Settings;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.ArrayAdapter;
+import android.view.ViewGroup;
+import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
@@ -17,15 +23,18 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
-import androidx.fragment.app.ListFragment;
+import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.snackbar.Snackbar;
 import com.tapkey.mobile.TapkeyServiceFactory;
+import com.tapkey.mobile.ble.BleLock;
 import com.tapkey.mobile.ble.BleLockCommunicator;
 import com.tapkey.mobile.ble.BleLockScanner;
 import com.tapkey.mobile.concurrent.CancellationToken;
 import com.tapkey.mobile.concurrent.CancellationTokens;
 import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
 import com.tapkey.mobile.manager.CommandExecutionFacade;
 import com.tapkey.mobile.manager.KeyManager;
 import com.tapkey.mobile.manager.UserManager;
@@ -36,26 +45,69 @@ import com.tapkey.mobile.utils.Tuple;
 
 import net.tpky.mc.tlcp.model.TriggerLockCommand;
 
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
-public class KeyListFragment extends ListFragment {
+public class KeyListFragment extends Fragment {
 
     private final static String TAG = KeyListFragment.class.getSimpleName();
 
+    // Proximity updates from the BLE lock scanner are coalesced for this long, locks are only
+    // considered out of range after not being seen for the leave delay, and the key list is
+    // updated at most a few times per second.
+    private static final long PROXIMITY_COALESCING_WINDOW_MS = 250;
+    private static final long PROXIMITY_LEAVE_DELAY_MS = 3000;
+    private static final int PROXIMITY_MAX_UPDATES_PER_SECOND = 4;
+
+    // How many locks coming into range may be connected to ahead of a tap, and for how long. Set
+    // to 0 to only resolve the locks' addresses ahead of time.
+    private static final int PREWARM_MAX_CONNECTIONS = 1;
+    private static final long PREWARM_IDLE_TIME_MS = 10000;
+
     private KeyManager keyManager;
     private CommandExecutionFacade commandExecutionFacade;
     private UserManager userManager;
     private BleLockScanner bleLockScanner;
     private BleLockCommunicator bleLockCommunicator;
     private SampleServerManager sampleServerManager;
+    private KeyRowViewModelMapper keyRowViewModelMapper;
+    private KeyListSnapshot keyListSnapshot;
+    private TriggerLatencyRecorder triggerLatencyRecorder;
+    private TriggerPolicy triggerPolicy;
+    private TriggerScheduler triggerScheduler;
+
+    // Whether rows based on the current local keys have been shown already, in which case the
+    // snapshot must not be shown anymore.
+    private boolean keysShown;
+
+    // Index of the application grant information for the local keys, updated with every fetch.
+    private final GrantRepository grantRepository = new GrantRepository();
+
+    // Search index over the same application grant information, following the repository.
+    private KeySearchIndex keySearchIndex;
+
+    // Evaluates the grants' validity periods and time restrictions.
+    private final GrantValidity grantValidity = new GrantValidity();
+
+    // All rows of the key list, before applying the search query and filters.
+    private List<KeyRowViewModel> allRows = Collections.emptyList();
+
+    private EditText searchEditText;
+    private CheckBox nearbyOnlyCheckBox;
+    private CheckBox validOnlyCheckBox;
 
     private ActivityResultLauncher<String[]> requestPermissionLauncher;
 
-    private ArrayAdapter<Tuple<KeyDetails, ApplicationGrantDto>> adapter;
+    private KeyItemAdapter adapter;
 
     private ObserverRegistration bleScanObserverRegistration;
-    private ObserverRegistration bleObserverRegistration;
+    private ProximityTracker proximityTracker;
+    private LockPrewarmer lockPrewarmer;
+    private ValidityScheduler validityScheduler;
     private ObserverRegistration keyUpdateObserverRegistration;
 
     private static final String[] REQUIRED_PERMISSIONS;
@@ -88,44 +140,28 @@ public class KeyListFragment extends ListFragment {
 
         @Override
         public boolean isLockNearby(String physicalLockId) {
-            return (physicalLockId != null) && bleLockScanner.isLockNearby(physicalLockId);
+            return proximityTracker.isLockNearby(physicalLockId);
         }
 
         @Override
-        public Promise<Boolean> triggerLock(String physicalLockId, CancellationToken ct) {
-
-            String bluetoothAddress = bleLockScanner.getLock(physicalLockId).getBluetoothAddress();
-
-            // let the BLE lock manager establish a connection to the BLE lock and then let the
-            // CommandExecutionFacade use this connection to execute a TriggerLock command.
-            return bleLockCommunicator.executeCommandAsync(bluetoothAddress, physicalLockId, tlcpConnection -> {
-
-                // now, that we have a TlcpConnection to the lock, let the CommandExecutionFacade
-                // asynchronously execute the trigger lock command.
-
-                TriggerLockCommand triggerLockCommand = new DefaultTriggerLockCommandBuilder()
-                        .build();
-
-                return commandExecutionFacade.executeStandardCommandAsync(
-                        tlcpConnection,
-                        triggerLockCommand,
-                        ct);
-
-            }, ct).continueOnUi(commandResult -> {
-
-                switch (commandResult.getCommandResultCode()) {
-                    case Ok:
-                        return true;
-
-                    // TODO: Issue meaningful error messages for different error codes here.
-                    // Functionality to do this will be provided in future versions of the
-                    // App SDK.
-                }
+        public boolean isKeyUsable(String grantId) {
+            return KeyListFragment.this.isKeyUsable(grantId, System.currentTimeMillis());
+        }
 
-                // let the user know, something went wrong.
-                Toast.makeText(getContext(), R.string.key_item__trigger_lock_failed, Toast.LENGTH_SHORT).show();
-                return false;
+        @Override
+        public TriggerTrace startTriggerTrace(String physicalLockId) {
+            return triggerLatencyRecorder.startTrace(physicalLockId);
+        }
 
+        @Override
+        public Promise<Boolean> triggerLock(String physicalLockId, TriggerTrace trace, CancellationToken ct) {
+
+            // Let the scheduler decide when the lock is triggered, so triggers don't compete for
+            // the Bluetooth radio. Connections opened ahead of time to other locks are closed
+            // for the same reason.
+            return triggerScheduler.schedule(physicalLockId, ct, trace, triggerCt -> {
+                lockPrewarmer.closeConnectionsExcept(physicalLockId);
+                return triggerLockAttempt(physicalLockId, trace, triggerCt, true);
             }).catchOnUi(e -> {
 
                 Log.e(TAG, "Couldn't execute trigger lock command.", e);
@@ -140,6 +176,12 @@ public class KeyListFragment extends ListFragment {
         }
     };
 
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        return inflater.inflate(R.layout.fragment_key_list, container, false);
+    }
+
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
@@ -151,11 +193,77 @@ public class KeyListFragment extends ListFragment {
         userManager = tapkeyServiceFactory.getUserManager();
         bleLockScanner = tapkeyServiceFactory.getBleLockScanner();
         bleLockCommunicator = tapkeyServiceFactory.getBleLockCommunicator();
-        sampleServerManager = new SampleServerManager(getContext());
+        sampleServerManager = app.getSampleServerManager();
+        proximityTracker = new ProximityTracker(
+                bleLockScanner,
+                PROXIMITY_COALESCING_WINDOW_MS,
+                PROXIMITY_LEAVE_DELAY_MS,
+                PROXIMITY_MAX_UPDATES_PER_SECOND);
+        lockPrewarmer = new LockPrewarmer(
+                lockId -> {
+                    BleLock bleLock = bleLockScanner.getLock(lockId);
+                    return (bleLock != null) ? bleLock.getBluetoothAddress() : null;
+                },
+                this::connectAndTrigger,
+                // Don't compete with triggers in progress.
+                lockId -> triggerScheduler.isIdle() && hasUsableKey(lockId),
+                PREWARM_MAX_CONNECTIONS,
+                PREWARM_IDLE_TIME_MS,
+                TriggerPolicy.MAX_TIMEOUT_MS);
+        keyRowViewModelMapper = new KeyRowViewModelMapper(getContext());
+        keyListSnapshot = app.getKeyListSnapshot();
+        triggerLatencyRecorder = app.getTriggerLatencyRecorder();
+        triggerPolicy = app.getTriggerPolicy();
+        triggerScheduler = app.getTriggerScheduler();
 
         adapter = new KeyItemAdapter(getActivity(), keyItemAdapterHandler);
 
-        setListAdapter(adapter);
+        keySearchIndex = new KeySearchIndex();
+        grantRepository.addListener(keySearchIndex);
+
+        // Rebind only the rows of keys whose validity changed, when it changes.
+        validityScheduler = new ValidityScheduler(grantRepository, grantValidity, grantIds -> {
+            if (validOnlyCheckBox.isChecked()) {
+                applyFilter();
+            }
+            adapter.updateUsability(grantIds);
+        });
+        grantRepository.addListener(validityScheduler);
+
+        RecyclerView recyclerView = view.findViewById(R.id.key_list__recycler_view);
+        recyclerView.setAdapter(adapter);
+
+        // Filter the key list as the user types or toggles a filter.
+        searchEditText = view.findViewById(R.id.key_list__search);
+        nearbyOnlyCheckBox = view.findViewById(R.id.key_list__nearby_only);
+        validOnlyCheckBox = view.findViewById(R.id.key_list__valid_only);
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                applyFilter();
+            }
+        });
+        nearbyOnlyCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> applyFilter());
+        validOnlyCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> applyFilter());
+
+        if (BuildConfig.DEBUG) {
+            // Log frame times and allocations while scrolling the key list.
+            recyclerView.addOnScrollListener(new FrameTimeMonitor(TAG));
+        }
+
+        // Show the key list as it was displayed last, until the current keys are available.
+        keysShown = false;
+        if (AuthStateManager.isLoggedIn(getContext())) {
+            showSnapshot();
+        }
 
         requestPermissionLauncher = registerForActivityResult(new ActivityResultContracts.RequestMultiplePermissions(), result -> {
 
@@ -216,10 +324,21 @@ public class KeyListFragment extends ListFragment {
         }
         onKeyUpdate(true);
 
-        // listen for Tapkey locks coming into or leaving range.
-        if (bleObserverRegistration == null) {
-            bleObserverRegistration = bleLockScanner.getLocksChangedObservable().addObserver(stringBleLockMap -> adapter.notifyDataSetChanged());
-        }
+        // listen for Tapkey locks coming into or leaving range. Only the rows of locks whose
+        // proximity changed are rebound.
+        proximityTracker.start(nearbyLockIds -> {
+            if (nearbyOnlyCheckBox.isChecked()) {
+                applyFilter();
+            }
+            adapter.updateNearbyLocks();
+            lockPrewarmer.onNearbyLocksChanged(nearbyLockIds);
+        });
+        adapter.updateNearbyLocks();
+        lockPrewarmer.onNearbyLocksChanged(proximityTracker.getNearbyLockIds());
+
+        // Keys might have become usable or unusable while paused.
+        adapter.updateUsability();
+        validityScheduler.start();
 
         if (checkPermissions()) {
             try {
@@ -248,10 +367,13 @@ public class KeyListFragment extends ListFragment {
         }
 
         // Stop listening for nearby BLE locks
-        if (bleObserverRegistration != null) {
-            bleObserverRegistration.close();
-            bleObserverRegistration = null;
-        }
+        proximityTracker.stop();
+
+        // Close connections opened ahead of a tap
+        lockPrewarmer.stop();
+
+        // Stop waiting for keys to become usable or unusable
+        validityScheduler.stop();
 
         // Stop listening for key updates
         if (keyUpdateObserverRegistration != null) {
@@ -260,6 +382,14 @@ public class KeyListFragment extends ListFragment {
         }
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        grantRepository.removeListener(keySearchIndex);
+        grantRepository.removeListener(validityScheduler);
+        keyRowViewModelMapper.close();
+    }
+
     private void showPermissionRationale() {
         Snackbar.make(getView(), PERMISSION_RATIONALE_STRING_ID, Snackbar.LENGTH_INDEFINITE)
                 .setAction("ALLOW", view -> requestPermissions()).show();
@@ -282,29 +412,47 @@ public class KeyListFragment extends ListFragment {
         // Retrieve local mobile keys
         keyManager.queryLocalKeysAsync(userId, CancellationTokens.None)
 
-                // Query sample server for application grant information for the local keys
-                .continueAsyncOnUi(keyDetails -> this.sampleServerManager.getGrants(
-                        AuthStateManager.getUsername(getContext()),
-                        AuthStateManager.getPassword(getContext()),
-                        keyDetails.stream().map((KeyDetails::getGrantId)).toArray(String[]::new)
-                )
-                        // Map the resulting application grant information with the local keys
-                        .continueOnUi(applicationGrants -> keyDetails
-                                .stream()
-                                .map(key -> {
-                                    ApplicationGrantDto grant = applicationGrants
-                                            .stream()
-                                            .filter(x -> x.getId().equals(key.getGrantId()))
-                                            .findAny()
-                                            .orElse(null);
-                                    return new Tuple<>(key, grant);
-                                })
-                                .collect(Collectors.toList())))
+                .continueAsyncOnUi(keyDetails -> {
+
+                    String[] grantIds = keyDetails.stream().map((KeyDetails::getGrantId)).toArray(String[]::new);
+                    String username = AuthStateManager.getUsername(getContext());
+                    AtomicBoolean freshGrantsShown = new AtomicBoolean(false);
+
+                    // Show cached application grant information right away, while fresh
+                    // information is being fetched from the sample server.
+                    this.sampleServerManager.getCachedGrants(username, grantIds)
+                            .continueOnUi(cachedGrants -> {
+                                if (!freshGrantsShown.get() && cachedGrants.size() == grantIds.length) {
+                                    grantRepository.setAll(cachedGrants);
+                                    showKeys(grantRepository.join(keyDetails, KeyDetails::getGrantId), false);
+                                }
+                                return null;
+                            })
+                            .catchOnUi(e -> {
+                                Log.w(TAG, "Reading cached grants failed.", e);
+                                return null;
+                            })
+                            .conclude();
+
+                    // Synchronize application grant information for the local keys with the
+                    // sample server
+                    return this.sampleServerManager.syncGrants(
+                            username,
+                            AuthStateManager.getPassword(getContext()),
+                            grantIds
+                    )
+                            // Map the resulting application grant information with the local keys.
+                            // If synchronizing fails, the previously shown keys are kept.
+                            .continueOnUi(applicationGrants -> {
+                                freshGrantsShown.set(true);
+                                grantRepository.setAll(applicationGrants);
+                                return grantRepository.join(keyDetails, KeyDetails::getGrantId);
+                            });
+                })
 
                 // Add items to the list adapter
                 .continueOnUi(listItems -> {
-                    adapter.clear();
-                    adapter.addAll(listItems);
+                    showKeys(listItems, true);
                     return null;
                 })
 
@@ -312,7 +460,9 @@ public class KeyListFragment extends ListFragment {
                 .catchOnUi(e -> {
 
                     Log.e(TAG, "Querying for local keys failed.", e);
-                    // Handle error
+                    if (getContext() != null) {
+                        Toast.makeText(getContext(), R.string.key_list__sync_failed, Toast.LENGTH_SHORT).show();
+                    }
                     return null;
                 })
 
@@ -321,6 +471,233 @@ public class KeyListFragment extends ListFragment {
 
     }
 
+    private void showSnapshot() {
+        keyListSnapshot.loadAsync()
+                .continueOnUi(rows -> {
+                    if (!keysShown && !rows.isEmpty()) {
+                        allRows = rows;
+                        applyFilter();
+                    }
+                    return null;
+                })
+                .catchOnUi(e -> {
+                    Log.w(TAG, "Reading key list snapshot failed.", e);
+                    return null;
+                })
+                .conclude();
+    }
+
+    /**
+     * Shows the given keys. If they are based on fresh application grant information, they are
+     * written to the key list snapshot.
+     */
+    private void showKeys(List<Tuple<KeyDetails, ApplicationGrantDto>> listItems, boolean fresh) {
+
+        // Format the rows in the background. Mappings complete in the order they were requested,
+        // so cached keys can't replace fresh ones.
+        keyRowViewModelMapper.mapAsync(listItems)
+
+                // The diff to the displayed list is computed in the background, too, only changed
+                // rows are rebound.
+                .continueOnUi(rows -> {
+                    keysShown = true;
+                    allRows = rows;
+                    applyFilter();
+
+                    // The user might have logged out in the meantime.
+                    if (fresh && getContext() != null && AuthStateManager.isLoggedIn(getContext())) {
+                        keyListSnapshot.save(rows);
+                    }
+                    return null;
+                })
+
+                .catchOnUi(e -> {
+                    Log.e(TAG, "Mapping keys to rows failed.", e);
+                    return null;
+                })
+
+                .conclude();
+    }
+
+    /**
+     * Shows the rows matching the search query and the selected filters. Matching grants are
+     * looked up in the search index, rather than searching the rows' strings. Rows shown from the
+     * snapshot are searched directly, as their grants haven't been indexed yet.
+     */
+    private void applyFilter() {
+        boolean nearbyOnly = nearbyOnlyCheckBox.isChecked();
+        boolean validOnly = validOnlyCheckBox.isChecked();
+        String query = searchEditText.getText().toString();
+        Set<String> matchingGrantIds = keysShown
+                ? keySearchIndex.search(query)
+                : KeySearchIndex.searchRows(query, allRows);
+
+        if (matchingGrantIds == null && !nearbyOnly && !validOnly) {
+            adapter.submitList(allRows);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<KeyRowViewModel> rows = new ArrayList<>();
+        for (KeyRowViewModel row : allRows) {
+            if (matchingGrantIds != null && !matchingGrantIds.contains(row.grantId)) {
+                continue;
+            }
+            if (nearbyOnly && !proximityTracker.isLockNearby(row.physicalLockId)) {
+                continue;
+            }
+            if (validOnly && !isKeyUsable(row.grantId, now)) {
+                continue;
+            }
+            rows.add(row);
+        }
+        adapter.submitList(rows);
+    }
+
+    /**
+     * Returns whether the key for the given grant can be used at the given time. Keys without
+     * application grant information, e.g. those shown from the snapshot, are considered usable.
+     */
+    private boolean isKeyUsable(String grantId, long time) {
+        ApplicationGrantDto grant = grantRepository.getById(grantId);
+        return grant == null || grantValidity.isValidAt(grant, time);
+    }
+
+    /**
+     * Returns whether any key for the given lock can be used now. Locks without application grant
+     * information, e.g. while only the snapshot is shown, aren't considered.
+     */
+    private boolean hasUsableKey(String physicalLockId) {
+        long now = System.currentTimeMillis();
+        for (ApplicationGrantDto grant : grantRepository.getByPhysicalLockId(physicalLockId)) {
+            if (grantValidity.isValidAt(grant, now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes an attempt to trigger the given lock, which may take as long as the trigger policy
+     * allows for the lock. If connecting fails before the command was sent, one more attempt is
+     * made right away, as such failures are usually transient.
+     */
+    private Promise<Boolean> triggerLockAttempt(String physicalLockId, TriggerTrace trace, CancellationToken ct, boolean retry) {
+
+        CancellationToken attemptCt = CancellationTokens.withTimeout(ct, triggerPolicy.getTimeoutMs(physicalLockId));
+        TriggerRequest request = new TriggerRequest(attemptCt, trace);
+
+        // Use the connection opened when the lock came into range, if there is one.
+        Promise<Boolean> res = lockPrewarmer.trigger(physicalLockId, request);
+        if (res != null) {
+            trace.mark(TriggerLatencyRecorder.Phase.LOOKUP);
+        } else {
+
+            // The lock might have gone out of range while still being displayed as nearby.
+            String bluetoothAddress = lockPrewarmer.getBluetoothAddress(physicalLockId);
+            if (bluetoothAddress == null) {
+                Toast.makeText(getContext(), R.string.key_item__trigger_lock_failed, Toast.LENGTH_SHORT).show();
+                return completedPromise(false);
+            }
+            trace.mark(TriggerLatencyRecorder.Phase.LOOKUP);
+
+            res = connectAndTrigger(bluetoothAddress, physicalLockId, null, completedPromise(request), attemptCt);
+        }
+
+        return res.catchAsyncOnUi(e -> {
+
+            if (ct.isCancellationRequested()) {
+                throw e;
+            }
+
+            // Give the lock more time next time.
+            if (attemptCt.isCancellationRequested()) {
+                triggerPolicy.onTimedOut(physicalLockId);
+                throw e;
+            }
+
+            // Retrying is safe as long as the lock didn't receive the command.
+            if (retry && !request.commandStarted) {
+                Log.i(TAG, "Connecting to lock " + physicalLockId + " failed, retrying.", e);
+                return triggerLockAttempt(physicalLockId, trace, ct, false);
+            }
+            throw e;
+        });
+    }
+
+    /**
+     * Lets the BLE lock communicator connect to the lock, runs the given callback, if any, waits
+     * for the given promise and then lets the CommandExecutionFacade use the connection to execute
+     * a TriggerLock command, unless the promise completed with null.
+     *
+     * @return a promise completing with whether the lock was triggered, or with null if no command
+     * was executed.
+     */
+    private Promise<Boolean> connectAndTrigger(String bluetoothAddress, String physicalLockId, Runnable onConnected, Promise<TriggerRequest> command, CancellationToken connectionCt) {
+
+        long connectStartTime = SystemClock.elapsedRealtime();
+        return bleLockCommunicator.executeCommandAsync(bluetoothAddress, physicalLockId, tlcpConnection -> {
+
+            triggerPolicy.onConnected(physicalLockId, SystemClock.elapsedRealtime() - connectStartTime);
+            if (onConnected != null) {
+                onConnected.run();
+            }
+
+            return command.continueAsyncOnUi(request -> {
+
+                // The connection wasn't used in time.
+                if (request == null) {
+                    return completedPromise(null);
+                }
+                request.trace.mark(TriggerLatencyRecorder.Phase.CONNECT);
+                request.commandStarted = true;
+
+                // now, that we have a TlcpConnection to the lock, let the CommandExecutionFacade
+                // asynchronously execute the trigger lock command.
+
+                TriggerLockCommand triggerLockCommand = new DefaultTriggerLockCommandBuilder()
+                        .build();
+
+                long executeStartTime = SystemClock.elapsedRealtime();
+                return commandExecutionFacade.executeStandardCommandAsync(
+                        tlcpConnection,
+                        triggerLockCommand,
+                        request.ct)
+                        .continueOnUi(commandResult -> {
+                            triggerPolicy.onExecuted(physicalLockId, SystemClock.elapsedRealtime() - executeStartTime);
+                            request.trace.mark(TriggerLatencyRecorder.Phase.EXECUTE);
+                            return commandResult;
+                        });
+            });
+
+        }, connectionCt).continueOnUi(commandResult -> {
+
+            if (commandResult == null) {
+                return null;
+            }
+
+            switch (commandResult.getCommandResultCode()) {
+                case Ok:
+                    return true;
+
+                // TODO: Issue meaningful error messages for different error codes here.
+                // Functionality to do this will be provided in future versions of the
+                // App SDK.
+            }
+
+            // let the user know, something went wrong.
+            Toast.makeText(getContext(), R.string.key_item__trigger_lock_failed, Toast.LENGTH_SHORT).show();
+            return false;
+
+        });
+    }
+
+    private static <T> Promise<T> completedPromise(T result) {
+        PromiseSource<T> res = new PromiseSource<>();
+        res.setResult(result);
+        return res.getPromise();
+    }
+
     private boolean shouldShowRationale() {
         for (String permission : REQUIRED_PERMISSIONS) {
 
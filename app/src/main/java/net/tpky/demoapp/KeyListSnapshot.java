@@ -0,0 +1,180 @@
+package net.tpky.demoapp;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Disk-backed snapshot of the key list most recently displayed.
+ *
+ * The snapshot is rendered right after startup, before local keys have been queried and grant
+ * information has been fetched, so that nearby locks can be triggered without waiting for the
+ * network. It consists of the rows' {@link KeyRowViewModel}s. All disk access happens on a
+ * background thread, so all methods may be called from the UI thread.
+ */
+class KeyListSnapshot {
+
+    private static final String TAG = KeyListSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "key_list_snapshot.json";
+    private static final int VERSION = 2;
+
+    private final AtomicFile file;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+
+    // The rows most recently written, to skip writing unchanged snapshots.
+    private List<KeyRowViewModel> saved;
+
+    KeyListSnapshot(Context context) {
+        this.file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Asynchronously reads the snapshot. Completes with an empty list, if there is none.
+     */
+    Promise<List<KeyRowViewModel>> loadAsync() {
+        PromiseSource<List<KeyRowViewModel>> res = new PromiseSource<>();
+        ioExecutor.execute(() -> {
+            try {
+                res.setResult(load());
+            } catch (Exception e) {
+                res.setException(e);
+            }
+        });
+        return res.getPromise();
+    }
+
+    /**
+     * Asynchronously replaces the snapshot with the given rows.
+     */
+    void save(List<KeyRowViewModel> rows) {
+        if (ioExecutor.isShutdown()) {
+            return;
+        }
+
+        List<KeyRowViewModel> copy = new ArrayList<>(rows);
+        ioExecutor.execute(() -> {
+            if (copy.equals(saved)) {
+                return;
+            }
+
+            FileOutputStream out = null;
+            try {
+                byte[] data = toJson(copy).toString().getBytes(StandardCharsets.UTF_8);
+                out = file.startWrite();
+                out.write(data);
+                file.finishWrite(out);
+                saved = copy;
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "Couldn't write key list snapshot.", e);
+                if (out != null) {
+                    file.failWrite(out);
+                }
+            }
+        });
+    }
+
+    /**
+     * Asynchronously deletes the snapshot, e.g. after the user logged out.
+     */
+    void clear() {
+        if (ioExecutor.isShutdown()) {
+            return;
+        }
+
+        ioExecutor.execute(() -> {
+            saved = null;
+            file.delete();
+        });
+    }
+
+    /**
+     * Shuts down the snapshot's I/O thread after pending writes have been completed.
+     */
+    void close() {
+        ioExecutor.shutdown();
+    }
+
+    private List<KeyRowViewModel> load() {
+        byte[] data;
+        try {
+            data = file.readFully();
+        } catch (FileNotFoundException e) {
+            return Collections.emptyList();
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't read key list snapshot.", e);
+            return Collections.emptyList();
+        }
+
+        try {
+            JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            if (json.getInt("version") != VERSION) {
+                return Collections.emptyList();
+            }
+
+            List<KeyRowViewModel> rows = fromJson(json);
+            saved = rows;
+            return rows;
+        } catch (JSONException e) {
+            Log.e(TAG, "Discarding corrupt key list snapshot.", e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static JSONObject toJson(List<KeyRowViewModel> rows) throws JSONException {
+        JSONArray jsonRows = new JSONArray();
+        for (KeyRowViewModel row : rows) {
+            JSONObject obj = new JSONObject();
+            obj.put("grantId", row.grantId);
+            obj.putOpt("physicalLockId", row.physicalLockId);
+            obj.put("lockTitle", row.lockTitle);
+            obj.put("issuer", row.issuer);
+            obj.put("location", row.location);
+            obj.put("accessRestriction", row.accessRestriction);
+            obj.putOpt("grantee", row.grantee);
+            obj.put("searchText", row.searchText);
+            jsonRows.put(obj);
+        }
+
+        JSONObject res = new JSONObject();
+        res.put("version", VERSION);
+        res.put("rows", jsonRows);
+        return res;
+    }
+
+    private static List<KeyRowViewModel> fromJson(JSONObject json) throws JSONException {
+        JSONArray jsonRows = json.getJSONArray("rows");
+        List<KeyRowViewModel> res = new ArrayList<>(jsonRows.length());
+        for (int i = 0; i < jsonRows.length(); i++) {
+            JSONObject obj = jsonRows.getJSONObject(i);
+            res.add(new KeyRowViewModel(
+                    obj.getString("grantId"),
+                    obj.optString("physicalLockId", null),
+                    obj.getString("lockTitle"),
+                    obj.getString("issuer"),
+                    obj.getString("location"),
+                    obj.getString("accessRestriction"),
+                    obj.optString("grantee", null),
+                    obj.getString("searchText")));
+        }
+        return res;
+    }
+}
@@ -0,0 +1,55 @@
+package net.tpky.demoapp;
+
+import java.util.Objects;
+
+/**
+ * Immutable view model of a key list row, with all display strings formatted and ready to be
+ * bound. Created by the {@link KeyRowViewModelMapper}.
+ */
+final class KeyRowViewModel {
+
+    final String grantId;
+    final String physicalLockId;
+    final String lockTitle;
+    final String issuer;
+    final String location;
+    final String accessRestriction;
+
+    // null, if the grantee is unknown.
+    final String grantee;
+
+    // The grant's searchable strings, as opposed to the display strings above, see
+    // KeySearchIndex.getSearchText().
+    final String searchText;
+
+    KeyRowViewModel(String grantId, String physicalLockId, String lockTitle, String issuer, String location, String accessRestriction, String grantee, String searchText) {
+        this.grantId = grantId;
+        this.physicalLockId = physicalLockId;
+        this.lockTitle = lockTitle;
+        this.issuer = issuer;
+        this.location = location;
+        this.accessRestriction = accessRestriction;
+        this.grantee = grantee;
+        this.searchText = searchText;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        KeyRowViewModel that = (KeyRowViewModel) o;
+        return Objects.equals(grantId, that.grantId) &&
+                Objects.equals(physicalLockId, that.physicalLockId) &&
+                Objects.equals(lockTitle, that.lockTitle) &&
+                Objects.equals(issuer, that.issuer) &&
+                Objects.equals(location, that.location) &&
+                Objects.equals(accessRestriction, that.accessRestriction) &&
+                Objects.equals(grantee, that.grantee) &&
+                Objects.equals(searchText, that.searchText);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(grantId, physicalLockId, lockTitle, issuer, location, accessRestriction, grantee, searchText);
+    }
+}
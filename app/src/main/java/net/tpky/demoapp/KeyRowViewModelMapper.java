@@ -0,0 +1,119 @@
+package net.tpky.demoapp;
+
+import android.content.Context;
+
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+import com.tapkey.mobile.model.KeyDetails;
+import com.tapkey.mobile.utils.Tuple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Maps joined key/grant pairs to {@link KeyRowViewModel}s on a background thread.
+ *
+ * Mappings are carried out one after another in the order they were requested, so their results
+ * are delivered in that order, too. View models are reused for grants that didn't change since
+ * the previous mapping.
+ */
+class KeyRowViewModelMapper {
+
+    private final Context context;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // The previous mapping's view models by grant ID. Only accessed on the executor's thread.
+    private Map<String, Tuple<ApplicationGrantDto, KeyRowViewModel>> previous = new HashMap<>();
+
+    KeyRowViewModelMapper(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Asynchronously maps the given key/grant pairs to row view models, preserving their order.
+     */
+    Promise<List<KeyRowViewModel>> mapAsync(List<Tuple<KeyDetails, ApplicationGrantDto>> items) {
+        PromiseSource<List<KeyRowViewModel>> res = new PromiseSource<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    res.setResult(map(items));
+                } catch (Exception e) {
+                    res.setException(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The mapper has been closed already.
+            res.setException(e);
+        }
+        return res.getPromise();
+    }
+
+    /**
+     * Stops the mapper's background thread. Pending mappings are still carried out.
+     */
+    void close() {
+        executor.shutdown();
+    }
+
+    private List<KeyRowViewModel> map(List<Tuple<KeyDetails, ApplicationGrantDto>> items) {
+        List<KeyRowViewModel> res = new ArrayList<>(items.size());
+        Map<String, Tuple<ApplicationGrantDto, KeyRowViewModel>> current = new HashMap<>(items.size() * 2);
+
+        for (Tuple<KeyDetails, ApplicationGrantDto> item : items) {
+            ApplicationGrantDto grant = item.getValue2();
+
+            Tuple<ApplicationGrantDto, KeyRowViewModel> mapped = previous.get(grant.getId());
+            if (mapped == null || !mapped.getValue1().equals(grant)) {
+                mapped = new Tuple<>(grant, map(grant));
+            }
+
+            current.put(grant.getId(), mapped);
+            res.add(mapped.getValue2());
+        }
+
+        previous = current;
+        return res;
+    }
+
+    private KeyRowViewModel map(ApplicationGrantDto grant) {
+
+        String lockTitle = (grant.getLockTitle() != null)
+                ? grant.getLockTitle()
+                : context.getString(R.string.key_item__unknown_lock);
+
+        String issuer = (grant.getIssuer() != null)
+                ? context.getString(R.string.key_item__issued_by, grant.getIssuer())
+                : context.getString(R.string.key_item__unknown_issuer);
+
+        String location = (grant.getLockLocation() != null)
+                ? context.getString(R.string.key_item__location, grant.getLockLocation())
+                : context.getString(R.string.key_item__unknown_location);
+
+        String accessRestriction = (grant.getValidFrom() != null || grant.getValidBefore() != null || grant.getTimeRestrictionIcal() != null)
+                ? context.getString(R.string.key_item__access_restricted)
+                : context.getString(R.string.key_item__access_unrestricted);
+
+        String grantee = null;
+        if (grant.getGranteeFirstName() != null && grant.getGranteeLastName() != null) {
+            grantee = context.getString(
+                    R.string.key_item_grantee,
+                    String.format(
+                            "%1$s %2$s",
+                            grant.getGranteeFirstName(),
+                            grant.getGranteeLastName()));
+        } else if (grant.getGranteeFirstName() != null || grant.getGranteeLastName() != null) {
+            grantee = context.getString(
+                    R.string.key_item_grantee,
+                    (grant.getGranteeFirstName() != null) ? grant.getGranteeFirstName() : grant.getGranteeLastName());
+        }
+
+        return new KeyRowViewModel(grant.getId(), grant.getPhysicalLockId(), lockTitle, issuer, location, accessRestriction, grantee,
+                KeySearchIndex.getSearchText(grant));
+    }
+}
@@ -0,0 +1,174 @@
+package net.tpky.demoapp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory search index over the lock title, lock location, issuer and grantee of application
+ * grants.
+ *
+ * The searchable strings are split into lower-case tokens, which are kept in a sorted map, so
+ * that a query token is matched against all token prefixes with a single range lookup instead of
+ * scanning all grants. The index follows the {@link GrantRepository} it is registered with. All
+ * methods are thread-safe.
+ */
+class KeySearchIndex implements GrantRepository.Listener {
+
+    private final TreeMap<String, Set<String>> grantIdsByToken = new TreeMap<>();
+
+    @Override
+    public synchronized void onGrantPut(ApplicationGrantDto grant, ApplicationGrantDto previous) {
+        if (previous != null) {
+            removeTokens(previous);
+        }
+
+        for (String token : tokenize(grant)) {
+            Set<String> tokenGrantIds = grantIdsByToken.get(token);
+            if (tokenGrantIds == null) {
+                tokenGrantIds = new HashSet<>(2);
+                grantIdsByToken.put(token, tokenGrantIds);
+            }
+            tokenGrantIds.add(grant.getId());
+        }
+    }
+
+    @Override
+    public synchronized void onGrantRemoved(ApplicationGrantDto grant) {
+        removeTokens(grant);
+    }
+
+    /**
+     * Returns the IDs of the grants matching all tokens of the given query, where a query token
+     * matches any token of the grant's searchable strings starting with it.
+     *
+     * @return the IDs of the matching grants, or null if the query has no tokens, i.e. all grants
+     * match.
+     */
+    synchronized Set<String> search(String query) {
+        List<String> queryTokens = new ArrayList<>();
+        addTokens(query, queryTokens);
+        if (queryTokens.isEmpty()) {
+            return null;
+        }
+
+        Set<String> res = null;
+        for (String queryToken : queryTokens) {
+            Set<String> matches = new HashSet<>();
+            SortedMap<String, Set<String>> prefixed = grantIdsByToken.subMap(queryToken, queryToken + Character.MAX_VALUE);
+            for (Set<String> tokenGrantIds : prefixed.values()) {
+                matches.addAll(tokenGrantIds);
+            }
+
+            if (res == null) {
+                res = matches;
+            } else {
+                res.retainAll(matches);
+            }
+            if (res.isEmpty()) {
+                break;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns the IDs of the given rows matching the query like {@link #search(String)}, by
+     * scanning the rows' search texts instead of the index. Meant for the few rows shown from the
+     * key list snapshot, before any grants have been indexed.
+     */
+    static Set<String> searchRows(String query, List<KeyRowViewModel> rows) {
+        List<String> queryTokens = new ArrayList<>();
+        addTokens(query, queryTokens);
+        if (queryTokens.isEmpty()) {
+            return null;
+        }
+
+        Set<String> res = new HashSet<>();
+        List<String> rowTokens = new ArrayList<>();
+        for (KeyRowViewModel row : rows) {
+            rowTokens.clear();
+            addTokens(row.searchText, rowTokens);
+            if (matchesAll(queryTokens, rowTokens)) {
+                res.add(row.grantId);
+            }
+        }
+        return res;
+    }
+
+    private static boolean matchesAll(List<String> queryTokens, List<String> tokens) {
+        for (String queryToken : queryTokens) {
+            boolean matched = false;
+            for (String token : tokens) {
+                if (token.startsWith(queryToken)) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void removeTokens(ApplicationGrantDto grant) {
+        for (String token : tokenize(grant)) {
+            Set<String> tokenGrantIds = grantIdsByToken.get(token);
+            if (tokenGrantIds == null) {
+                continue;
+            }
+            tokenGrantIds.remove(grant.getId());
+            if (tokenGrantIds.isEmpty()) {
+                grantIdsByToken.remove(token);
+            }
+        }
+    }
+
+    /**
+     * Returns the searchable strings of the given grant, i.e. its lock title, lock location, issuer
+     * and grantee names, as they were received, without the labels of the displayed strings. Rows
+     * shown from the key list snapshot keep this text, so that they are searched for the same
+     * tokens as the indexed grants.
+     */
+    static String getSearchText(ApplicationGrantDto grant) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : new String[]{grant.getLockTitle(), grant.getLockLocation(), grant.getIssuer(), grant.getGranteeFirstName(), grant.getGranteeLastName()}) {
+            if (s != null) {
+                sb.append(s).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Set<String> tokenize(ApplicationGrantDto grant) {
+        List<String> tokens = new ArrayList<>();
+        addTokens(getSearchText(grant), tokens);
+        return new HashSet<>(tokens);
+    }
+
+    /**
+     * Splits the given string into lower-case tokens at anything but letters and digits.
+     */
+    private static void addTokens(String s, List<String> tokens) {
+        if (s == null) {
+            return;
+        }
+
+        String lower = s.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean tokenChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package net.tpky.demoapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.tapkey.mobile.concurrent.CancellationToken;
+import com.tapkey.mobile.concurrent.CancellationTokenSource;
+import com.tapkey.mobile.concurrent.CancellationTokens;
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prepares nearby locks for being triggered, so that a tap doesn't have to wait for the lock to
+ * be looked up and connected to.
+ *
+ * <ul>
+ *     <li>The Bluetooth addresses of nearby locks are resolved when they come into range and kept
+ *     while they are considered nearby, even if the scanner briefly loses them.</li>
+ *     <li>Optionally, a connection is opened to locks the user holds a usable key for, when they
+ *     come into range. A tap within the idle time executes the command over this connection,
+ *     under the tap's cancellation token. Otherwise it is closed. A tap while the connection is
+ *     still being established closes it, and the caller connects under its own token, so that
+ *     the tap's timeout and cancellation also cover connecting. At most the given number of
+ *     connections are held at the same time, and each lock is connected to at most once while it
+ *     stays in range.</li>
+ * </ul>
+ *
+ * All methods must be called on the UI thread.
+ */
+class LockPrewarmer {
+
+    private static final String TAG = LockPrewarmer.class.getSimpleName();
+
+    interface AddressResolver {
+
+        /**
+         * Returns the Bluetooth address of the given lock, or null if it isn't in range.
+         */
+        String getBluetoothAddress(String physicalLockId);
+    }
+
+    interface Connector {
+
+        /**
+         * Connects to the given lock and, once connected, runs the given callback and waits for
+         * the given promise. If it completes with a trigger request, the trigger lock command is
+         * executed for it, observing the request's token. Otherwise, the connection is closed
+         * without executing a command.
+         *
+         * @param onConnected called, on any thread, once the connection has been established.
+         * @return a promise completing with whether the lock was triggered, or with null if no
+         * command was executed.
+         */
+        Promise<Boolean> connectAndTrigger(String bluetoothAddress, String physicalLockId, Runnable onConnected, Promise<TriggerRequest> command, CancellationToken ct);
+    }
+
+    interface Candidates {
+
+        /**
+         * Returns whether a connection to the given lock, which just came into range, should be
+         * opened, e.g. because the user holds a key for it, which can be used now.
+         */
+        boolean shouldConnect(String physicalLockId);
+    }
+
+    private class WarmConnection {
+        final String physicalLockId;
+        final CancellationTokenSource cts = new CancellationTokenSource();
+        final PromiseSource<TriggerRequest> command = new PromiseSource<>();
+        final PromiseSource<Boolean> result = new PromiseSource<>();
+        final Runnable expire = this::expire;
+        boolean claimed;
+        volatile boolean connected;
+
+        WarmConnection(String physicalLockId) {
+            this.physicalLockId = physicalLockId;
+        }
+
+        void expire() {
+            if (claimed) {
+                return;
+            }
+            close();
+        }
+
+        void close() {
+            handler.removeCallbacks(expire);
+            if (warmConnections.get(physicalLockId) == this) {
+                warmConnections.remove(physicalLockId);
+            }
+            if (!claimed) {
+                command.setResult(null);
+                cts.requestCancellation();
+            }
+        }
+    }
+
+    private final AddressResolver addressResolver;
+    private final Connector connector;
+    private final Candidates candidates;
+    private final int maxWarmConnections;
+    private final long idleTimeMs;
+    private final long commandTimeoutMs;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // The Bluetooth addresses of the locks considered nearby.
+    private final Map<String, String> bluetoothAddresses = new HashMap<>();
+
+    // The open connections, oldest first.
+    private final LinkedHashMap<String, WarmConnection> warmConnections = new LinkedHashMap<>();
+
+    // The nearby locks connected to already. They aren't connected to again, before they have
+    // gone out of range.
+    private final Set<String> warmedLockIds = new HashSet<>();
+
+    /**
+     * @param maxWarmConnections how many connections may be held at the same time. 0 disables
+     *                           connecting ahead of time, leaving only the address resolution.
+     * @param idleTimeMs how long a connection is held, if the lock isn't triggered.
+     * @param commandTimeoutMs how long the command may take, once the lock is triggered.
+     */
+    LockPrewarmer(AddressResolver addressResolver, Connector connector, Candidates candidates, int maxWarmConnections, long idleTimeMs, long commandTimeoutMs) {
+        this.addressResolver = addressResolver;
+        this.connector = connector;
+        this.candidates = candidates;
+        this.maxWarmConnections = maxWarmConnections;
+        this.idleTimeMs = idleTimeMs;
+        this.commandTimeoutMs = commandTimeoutMs;
+    }
+
+    /**
+     * Updates the resolved addresses and connections according to the locks now considered
+     * nearby. Locks that came into range most recently are preferred for connecting.
+     */
+    void onNearbyLocksChanged(Set<String> nearbyLockIds) {
+        List<String> entered = new ArrayList<>();
+        for (String lockId : nearbyLockIds) {
+            String bluetoothAddress = addressResolver.getBluetoothAddress(lockId);
+            if (bluetoothAddress != null) {
+                bluetoothAddresses.put(lockId, bluetoothAddress);
+            }
+            if (!warmedLockIds.contains(lockId) && !warmConnections.containsKey(lockId)) {
+                entered.add(lockId);
+            }
+        }
+
+        bluetoothAddresses.keySet().retainAll(nearbyLockIds);
+        warmedLockIds.retainAll(nearbyLockIds);
+        for (WarmConnection connection : new ArrayList<>(warmConnections.values())) {
+            if (!nearbyLockIds.contains(connection.physicalLockId)) {
+                connection.close();
+            }
+        }
+
+        for (String lockId : entered) {
+            if (maxWarmConnections <= 0) {
+                break;
+            }
+            if (bluetoothAddresses.containsKey(lockId) && candidates.shouldConnect(lockId)) {
+                open(lockId);
+            }
+        }
+    }
+
+    /**
+     * Returns the Bluetooth address of the given lock, or null if it isn't nearby.
+     */
+    String getBluetoothAddress(String physicalLockId) {
+        String res = bluetoothAddresses.get(physicalLockId);
+        if (res != null) {
+            return res;
+        }
+
+        return addressResolver.getBluetoothAddress(physicalLockId);
+    }
+
+    /**
+     * Triggers the given lock over a connection opened ahead of time, if there is one and it has
+     * been established already.
+     *
+     * @return a promise completing with whether the lock was triggered, or null if there is no
+     * established connection to the lock, in which case the caller has to connect itself.
+     */
+    Promise<Boolean> trigger(String physicalLockId, TriggerRequest request) {
+        WarmConnection connection = warmConnections.get(physicalLockId);
+        if (connection == null) {
+            return null;
+        }
+
+        // Connecting is bound by the connection's lifetime only, which neither the request's
+        // timeout nor the user could cancel. Leave connecting to the caller.
+        if (!connection.connected) {
+            connection.close();
+            return null;
+        }
+
+        warmConnections.remove(physicalLockId);
+
+        handler.removeCallbacks(connection.expire);
+        connection.claimed = true;
+        connection.command.setResult(request);
+        return connection.result.getPromise();
+    }
+
+    /**
+     * Closes the connections to all but the given lock, e.g. to leave the Bluetooth radio to
+     * triggering that lock.
+     */
+    void closeConnectionsExcept(String physicalLockId) {
+        for (WarmConnection connection : new ArrayList<>(warmConnections.values())) {
+            if (!connection.physicalLockId.equals(physicalLockId)) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Closes all connections, e.g. while the key list isn't visible. Addresses are retained.
+     */
+    void stop() {
+        for (WarmConnection connection : new ArrayList<>(warmConnections.values())) {
+            connection.close();
+        }
+        warmedLockIds.clear();
+    }
+
+    private void open(String physicalLockId) {
+        // Make room by closing the oldest connection.
+        if (warmConnections.size() >= maxWarmConnections) {
+            warmConnections.values().iterator().next().close();
+        }
+
+        WarmConnection connection = new WarmConnection(physicalLockId);
+        warmConnections.put(physicalLockId, connection);
+        warmedLockIds.add(physicalLockId);
+
+        // Bound the connection's lifetime, even if the lock is triggered right before the idle
+        // time elapses.
+        CancellationToken ct = CancellationTokens.withTimeout(connection.cts.getToken(), (int) (idleTimeMs + commandTimeoutMs));
+        connector.connectAndTrigger(bluetoothAddresses.get(physicalLockId), physicalLockId, () -> connection.connected = true, connection.command.getPromise(), ct)
+                .continueOnUi(triggered -> {
+                    connection.close();
+                    connection.result.setResult(triggered);
+                    return null;
+                })
+                .catchOnUi(e -> {
+                    connection.close();
+
+                    // Failures of unclaimed connections don't matter, the lock is connected to
+                    // when tapped.
+                    if (connection.claimed) {
+                        connection.result.setException(e);
+                    } else {
+                        Log.d(TAG, "Connection to lock " + physicalLockId + " closed.", e);
+                    }
+                    return null;
+                })
+                .conclude();
+
+        handler.postDelayed(connection.expire, idleTimeMs);
+    }
+}
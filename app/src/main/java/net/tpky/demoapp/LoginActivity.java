@@ -31,6 +31,7 @@ public class LoginActivity extends AppCompatActivity {
 
     private SampleServerManager sampleServerManager;
     private TapkeyTokenExchangeManager tokenExchangeManager;
+    private TokenLifecycleManager tokenLifecycleManager;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -48,8 +49,46 @@ public class LoginActivity extends AppCompatActivity {
 
         App app = (App) getApplication();
         userManager = app.getTapkeyServiceFactory().getUserManager();
-        tokenExchangeManager = new TapkeyTokenExchangeManager(this);
-        sampleServerManager = new SampleServerManager(this);
+        tokenExchangeManager = app.getTokenExchangeManager();
+        tokenLifecycleManager = app.getTokenLifecycleManager();
+        sampleServerManager = app.getSampleServerManager();
+
+        if (!AuthStateManager.isLoggedIn(this)) {
+            warmUp();
+        }
+    }
+
+    /*
+     * Start the login stages that don't depend on user input right away, while the user is still
+     * filling in the form: connect to both backends and fetch the authorization server's
+     * configuration, which is needed for the token exchange.
+     */
+    private void warmUp() {
+        StageTimer sampleServerTimer = new StageTimer("warm-up");
+        sampleServerManager.warmUpConnection()
+                .continueOnUi(ignore -> {
+                    sampleServerTimer.mark("sampleServerConnection");
+                    Log.d(TAG, sampleServerTimer.toString());
+                    return null;
+                })
+                .catchOnUi(e -> {
+                    Log.w(TAG, "Couldn't connect to the sample server ahead of time.", e);
+                    return null;
+                })
+                .conclude();
+
+        StageTimer configurationTimer = new StageTimer("warm-up");
+        tokenExchangeManager.getAuthorizationServiceConfiguration()
+                .continueOnUi(configuration -> {
+                    configurationTimer.mark("authorizationServerConfiguration");
+                    Log.d(TAG, configurationTimer.toString());
+                    return null;
+                })
+                .catchOnUi(e -> {
+                    Log.w(TAG, "Couldn't fetch the authorization server configuration ahead of time.", e);
+                    return null;
+                })
+                .conclude();
     }
 
     @Override
@@ -73,14 +112,26 @@ public class LoginActivity extends AppCompatActivity {
         mProgressView.setVisibility(View.VISIBLE);
         mButtonCreate.setEnabled(false);
 
+        StageTimer timer = new StageTimer("login");
+
         sampleServerManager.registerUser(username, password, firstName, lastName)
                 .continueAsyncOnUi(userId -> {
+                    timer.mark("registerUser");
                     AuthStateManager.setLoggedIn(this, username, password);
                     return sampleServerManager.getExternalToken(username, password);
                 })
-                .continueAsyncOnUi(externalToken -> tokenExchangeManager.exchangeToken(externalToken))
-                .continueAsyncOnUi(tokenResponse -> this.userManager.logInAsync(tokenResponse.accessToken, CancellationTokens.None))
+                .continueAsyncOnUi(externalToken -> {
+                    timer.mark("getExternalToken");
+                    return tokenExchangeManager.exchangeToken(externalToken);
+                })
+                .continueAsyncOnUi(tokenResponse -> {
+                    timer.mark("exchangeToken");
+                    tokenLifecycleManager.onTokenIssued(tokenResponse);
+                    return this.userManager.logInAsync(tokenResponse.accessToken, CancellationTokens.None);
+                })
                 .continueOnUi(tapkeyUserId -> {
+                    timer.mark("logInAsync");
+                    Log.i(TAG, timer.toString());
                     mProgressView.setVisibility(View.GONE);
                     Log.d(TAG, String.format("Created account and logged in Tapkey user %s, redirecting to MainActivity.", tapkeyUserId));
                     Intent intent = new Intent(LoginActivity.this, MainActivity.class);
@@ -6,12 +6,14 @@ import android.util.Log;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.view.GravityCompat;
 import androidx.drawerlayout.widget.DrawerLayout;
 import androidx.appcompat.app.ActionBarDrawerToggle;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
@@ -79,7 +81,7 @@ public class MainActivity extends AppCompatActivity
              * the user gracefully. In this sample app, the entire authentication
              * information is deleted and the user is redirected to the login page.
              */
-            AuthStateManager.setLoggedOut(this);
+            ((App) getApplication()).onSignedOut();
             Intent intent = new Intent(this, LoginActivity.class);
             startActivityForResult(intent, LOGON_REQUEST_CODE);
         } else {
@@ -125,6 +127,14 @@ public class MainActivity extends AppCompatActivity
                 refreshKeys();
                 break;
 
+            case R.id.nav__trigger_latency:
+                showTriggerLatency();
+                break;
+
+            case R.id.nav__trigger_queue:
+                showTriggerQueue();
+                break;
+
             case R.id.nav__about:
                 Intent intent = new Intent(this, AboutActivity.class);
                 startActivity(intent);
@@ -148,6 +158,45 @@ public class MainActivity extends AppCompatActivity
         ).conclude();
     }
 
+    /*
+     * Show the durations of the phases of triggering locks, per lock
+     */
+    private void showTriggerLatency() {
+        TriggerLatencyRecorder recorder = ((App) getApplication()).getTriggerLatencyRecorder();
+        String report = recorder.formatReport();
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.trigger_latency)
+                .setMessage(report.isEmpty() ? getString(R.string.trigger_latency__empty) : report)
+                .setPositiveButton(R.string.trigger_latency__export, (dialog, which) -> recorder.exportAsync()
+                        .continueOnUi(file -> {
+                            Toast.makeText(this, getString(R.string.trigger_latency__exported, file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+                            return null;
+                        })
+                        .catchOnUi(e -> {
+                            Log.e(TAG, "Couldn't export trigger latency report.", e);
+                            Toast.makeText(this, R.string.trigger_latency__export_failed, Toast.LENGTH_SHORT).show();
+                            return null;
+                        })
+                        .conclude())
+                .setNeutralButton(R.string.trigger_latency__reset, (dialog, which) -> recorder.clear())
+                .setNegativeButton(R.string.trigger_latency__close, null)
+                .show();
+    }
+
+    /*
+     * Show the triggers queued and running, for diagnostics
+     */
+    private void showTriggerQueue() {
+        TriggerScheduler scheduler = ((App) getApplication()).getTriggerScheduler();
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.trigger_queue)
+                .setMessage(scheduler.formatQueue())
+                .setNegativeButton(R.string.trigger_queue__close, null)
+                .show();
+    }
+
     /*
      * Sign out user
      */
@@ -166,7 +215,8 @@ public class MainActivity extends AppCompatActivity
             }).conclude();
         }
 
-        AuthStateManager.setLoggedOut(this);
+        // Don't keep the signed out user's grant information, keys and tokens around
+        ((App) getApplication()).onSignedOut();
 
         /*
          * Redirect to LoginActivity
@@ -0,0 +1,183 @@
+package net.tpky.demoapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.tapkey.mobile.ble.BleLockScanner;
+import com.tapkey.mobile.utils.ObserverRegistration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns the BLE lock scanner's frequent lock change notifications into a bounded stream of
+ * proximity updates for the UI.
+ *
+ * <ul>
+ *     <li>Notifications arriving within the coalescing window are merged into a single update.</li>
+ *     <li>A lock is reported nearby as soon as it's seen, but only reported out of range once it
+ *     hasn't been seen for the leave delay, so locks at the edge of range don't flap.</li>
+ *     <li>At most the given number of updates are delivered per second.</li>
+ * </ul>
+ *
+ * All methods must be called, and listeners are notified, on the UI thread.
+ */
+class ProximityTracker {
+
+    interface Listener {
+        void onNearbyLocksChanged(Set<String> nearbyLockIds);
+    }
+
+    private final BleLockScanner bleLockScanner;
+    private final long coalescingWindowMs;
+    private final long leaveDelayMs;
+    private final long minUpdateIntervalMs;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flush = this::flush;
+
+    // The locks most recently reported by the scanner.
+    private Set<String> scannedLockIds = Collections.emptySet();
+
+    // When the locks, which aren't reported by the scanner anymore, have been seen last.
+    private final Map<String, Long> lastSeen = new HashMap<>();
+
+    private final Set<String> nearbyLockIds = new HashSet<>();
+    private final Set<String> unmodifiableNearbyLockIds = Collections.unmodifiableSet(nearbyLockIds);
+
+    private Listener listener;
+    private ObserverRegistration observerRegistration;
+
+    // The uptime at which the next update is due, 0 if none is scheduled.
+    private long scheduledFlushTime;
+    private long lastUpdateTime;
+
+    /**
+     * @param coalescingWindowMs how long to wait for further notifications before updating.
+     * @param leaveDelayMs how long a lock must not have been seen to be reported out of range.
+     * @param maxUpdatesPerSecond how many updates may be delivered per second at most.
+     */
+    ProximityTracker(BleLockScanner bleLockScanner, long coalescingWindowMs, long leaveDelayMs, int maxUpdatesPerSecond) {
+        this.bleLockScanner = bleLockScanner;
+        this.coalescingWindowMs = coalescingWindowMs;
+        this.leaveDelayMs = leaveDelayMs;
+        this.minUpdateIntervalMs = 1000 / maxUpdatesPerSecond;
+    }
+
+    /**
+     * Starts listening for the scanner's notifications.
+     */
+    void start(Listener listener) {
+        this.listener = listener;
+        if (observerRegistration == null) {
+            observerRegistration = bleLockScanner.getLocksChangedObservable().addObserver(locks -> {
+                Set<String> lockIds = new HashSet<>(locks.keySet());
+                handler.post(() -> onLocksChanged(lockIds));
+            });
+        }
+
+        // The locks might have changed while not listening.
+        onLocksChanged(new HashSet<>(bleLockScanner.getLocks().keySet()));
+    }
+
+    /**
+     * Stops listening for the scanner's notifications. The last known proximity is retained.
+     */
+    void stop() {
+        if (observerRegistration != null) {
+            observerRegistration.close();
+            observerRegistration = null;
+        }
+        handler.removeCallbacks(flush);
+        scheduledFlushTime = 0;
+        listener = null;
+    }
+
+    boolean isLockNearby(String physicalLockId) {
+        return (physicalLockId != null) && nearbyLockIds.contains(physicalLockId);
+    }
+
+    /**
+     * Returns the locks currently considered nearby.
+     */
+    Set<String> getNearbyLockIds() {
+        return unmodifiableNearbyLockIds;
+    }
+
+    private void onLocksChanged(Set<String> lockIds) {
+        if (listener == null) {
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        for (String lockId : scannedLockIds) {
+            if (!lockIds.contains(lockId)) {
+                lastSeen.put(lockId, now);
+            }
+        }
+        for (String lockId : lockIds) {
+            lastSeen.remove(lockId);
+        }
+        scannedLockIds = lockIds;
+
+        scheduleFlush(now, coalescingWindowMs);
+    }
+
+    /**
+     * Schedules an update after the given delay, unless one is due earlier already.
+     */
+    private void scheduleFlush(long now, long delayMs) {
+        // Respect the rate limit.
+        long flushTime = Math.max(now + delayMs, lastUpdateTime + minUpdateIntervalMs);
+        if (scheduledFlushTime != 0 && scheduledFlushTime <= flushTime) {
+            return;
+        }
+
+        handler.removeCallbacks(flush);
+        handler.postAtTime(flush, flushTime);
+        scheduledFlushTime = flushTime;
+    }
+
+    private void flush() {
+        scheduledFlushTime = 0;
+
+        long now = SystemClock.uptimeMillis();
+        boolean changed = nearbyLockIds.addAll(scannedLockIds);
+
+        long nextExpiry = Long.MAX_VALUE;
+        Iterator<String> it = nearbyLockIds.iterator();
+        while (it.hasNext()) {
+            String lockId = it.next();
+            if (scannedLockIds.contains(lockId)) {
+                continue;
+            }
+
+            Long seen = lastSeen.get(lockId);
+            long expiry = (seen == null) ? now : seen + leaveDelayMs;
+            if (expiry <= now) {
+                it.remove();
+                lastSeen.remove(lockId);
+                changed = true;
+            } else {
+                nextExpiry = Math.min(nextExpiry, expiry);
+            }
+        }
+
+        if (changed) {
+            lastUpdateTime = now;
+            if (listener != null) {
+                listener.onNearbyLocksChanged(unmodifiableNearbyLockIds);
+            }
+        }
+
+        // Check again once the next lock out of range has not been seen for long enough.
+        if (nextExpiry != Long.MAX_VALUE) {
+            scheduleFlush(now, nextExpiry - now);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.tpky.demoapp;
+
+import android.util.Log;
+
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces concurrent requests for the same resource (single-flight).
+ *
+ * While a request for a given key is pending, further requests for the same key don't start
+ * another operation, but are completed with the result of the pending one. Once the pending
+ * operation has completed, the next request for the key starts a new operation. How many requests
+ * were coalesced is counted and logged, for diagnostics.
+ *
+ * @param <K> the type of the keys identifying the requested resources.
+ * @param <T> the type of the operations' results.
+ */
+class RequestCoalescer<K, T> {
+
+    private static final String TAG = RequestCoalescer.class.getSimpleName();
+
+    interface Operation<T> {
+        Promise<T> start();
+    }
+
+    private final String name;
+    private final Map<K, List<PromiseSource<T>>> pending = new HashMap<>();
+
+    private long requestCount;
+    private long coalescedCount;
+
+    /**
+     * @param name describes the requested resources in log messages.
+     */
+    RequestCoalescer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Executes the given operation, unless an operation for the same key is pending already. In
+     * that case, the returned promise is completed with the result of the pending operation.
+     */
+    Promise<T> execute(K key, Operation<T> operation) {
+        PromiseSource<T> res = new PromiseSource<>();
+        List<PromiseSource<T>> waiting;
+
+        synchronized (this) {
+            requestCount++;
+
+            List<PromiseSource<T>> existing = pending.get(key);
+            if (existing != null) {
+                coalescedCount++;
+                Log.d(TAG, String.format("%s request coalesced with a pending one (%d of %d requests coalesced).",
+                        name, coalescedCount, requestCount));
+                existing.add(res);
+                return res.getPromise();
+            }
+
+            waiting = new ArrayList<>();
+            waiting.add(res);
+            pending.put(key, waiting);
+        }
+
+        Promise<T> promise;
+        try {
+            promise = operation.start();
+        } catch (Exception e) {
+            complete(key, waiting, null, e);
+            return res.getPromise();
+        }
+
+        promise
+                .continueOnUi(result -> {
+                    complete(key, waiting, result, null);
+                    return null;
+                })
+                .catchOnUi(e -> {
+                    complete(key, waiting, null, e);
+                    return null;
+                })
+                .conclude();
+
+        return res.getPromise();
+    }
+
+    /**
+     * Returns the total number of requests passed to {@link #execute(Object, Operation)}.
+     */
+    synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Returns the number of requests that were served by an already pending operation.
+     */
+    synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    private void complete(K key, List<PromiseSource<T>> waiting, T result, Exception e) {
+        synchronized (this) {
+            // The operation may only complete the requests that were waiting for it.
+            if (!pending.remove(key, waiting)) {
+                return;
+            }
+        }
+
+        for (PromiseSource<T> source : waiting) {
+            if (e != null) {
+                source.setException(e);
+            } else {
+                source.setResult(result);
+            }
+        }
+    }
+}
@@ -3,44 +3,140 @@ package net.tpky.demoapp;
 import android.content.Context;
 import android.net.Uri;
 import android.util.Base64;
+import android.util.Log;
 
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
-import com.android.volley.toolbox.JsonArrayRequest;
 import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.Volley;
+import com.android.volley.toolbox.StringRequest;
 import com.tapkey.mobile.concurrent.Promise;
 import com.tapkey.mobile.concurrent.PromiseSource;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 class SampleServerManager {
 
-    private DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", Locale.US);
+    private static final String TAG = SampleServerManager.class.getSimpleName();
 
-    private final Uri.Builder uriBuilder;
+    // Keeps the URL of grant requests well below common URL length limits.
+    private static final int MAX_GRANT_IDS_PER_REQUEST = 50;
+    private static final int MAX_CONCURRENT_GRANT_REQUESTS = 4;
+
+    // Immutable base URI of the sample server. Request URIs are built from it per request, so that
+    // building them is safe from any thread.
+    private final Uri baseUri;
+    private final Context context;
     private final RequestQueue queue;
+    private final ExternalTokenCache externalTokenCache;
+
+    // The grant cache of the user whose grants were requested last. Replaced when grants of
+    // another user are requested.
+    private GrantCache grantCache;
+
+    // Concurrent requests for the same resource share a single network call.
+    private final RequestCoalescer<String, String> externalTokenRequests = new RequestCoalescer<>("External token");
+    private final RequestCoalescer<String, List<ApplicationGrantDto>> grantRequests = new RequestCoalescer<>("Grants");
+    private final RequestCoalescer<String, Boolean> grantSyncRequests = new RequestCoalescer<>("Grant synchronization");
 
-    SampleServerManager(Context context) {
-        this.queue = Volley.newRequestQueue(context);
-        uriBuilder = new Uri.Builder();
-        uriBuilder.scheme(context.getString(R.string.sample_backend_scheme));
-        uriBuilder.encodedAuthority(context.getString(R.string.sample_backend_authority));
+    private enum SyncOutcome {
+        SYNCHRONIZED,
+        WATERMARK_REJECTED,
+        UNSUPPORTED
+    }
+
+    // Incremented whenever the cached information is cleared, e.g. on logout. Responses to
+    // requests started before are not cached.
+    private int cacheGeneration;
+
+    // Set once the sample server turned out not to support delta synchronization of grants.
+    private volatile boolean deltaSyncUnsupported;
+
+    /**
+     * Creates a new SampleServerManager. A single instance, owned by the {@link App}, is shared
+     * by all callers.
+     *
+     * @param context the application context.
+     * @param queue the application's shared request queue.
+     */
+    SampleServerManager(Context context, RequestQueue queue) {
+        this.context = context;
+        this.queue = queue;
+        this.grantCache = new GrantCache(context, null);
+        this.externalTokenCache = new ExternalTokenCache(context, ExternalTokenCache.DEFAULT_SAFETY_MARGIN_MS);
+        this.baseUri = new Uri.Builder()
+                .scheme(context.getString(R.string.sample_backend_scheme))
+                .encodedAuthority(context.getString(R.string.sample_backend_authority))
+                .build();
+    }
+
+    /**
+     * Opens a connection to the sample server ahead of time, so that DNS resolution and the TCP
+     * and TLS handshakes are out of the way when the first actual request is sent. The connection
+     * is kept alive and reused by subsequent requests.
+     */
+    Promise<Void> warmUpConnection() {
+        PromiseSource<Void> res = new PromiseSource<>();
+
+        StringRequest request = new StringRequest(
+                Request.Method.HEAD,
+                baseUri.toString(),
+                response -> res.setResult(null),
+                error -> {
+                    // Any response from the server means that the connection has been established.
+                    if (error.networkResponse != null) {
+                        res.setResult(null);
+                    } else {
+                        res.setException(new Exception(error.getCause()));
+                    }
+                });
+        request.setShouldCache(false);
+
+        queue.add(request);
+        return res.getPromise();
+    }
+
+    /**
+     * Removes all locally cached information, e.g. after the user logged out.
+     */
+    synchronized void clearCache() {
+        cacheGeneration++;
+        grantCache.clear();
+    }
+
+    /**
+     * Releases the resources held by this instance. Pending writes to the grant cache are
+     * completed.
+     */
+    synchronized void close() {
+        grantCache.close();
+    }
+
+    /**
+     * Returns the grant cache of the given user. Requests still in flight for another user keep
+     * writing to that user's cache instance, which is closed, but not reused.
+     */
+    private synchronized GrantCache getGrantCache(String username) {
+        if (!Objects.equals(username, grantCache.getUsername())) {
+            grantCache.close();
+            grantCache = new GrantCache(context, username);
+        }
+        return grantCache;
     }
 
     Promise<String> registerUser(String username, String password, String firstName, String lastName) {
         PromiseSource<String> res = new PromiseSource<>();
-        uriBuilder.path("user");
+        Uri uri = baseUri.buildUpon().path("user").build();
 
         try {
             JSONObject jsonBody = new JSONObject();
@@ -52,7 +148,7 @@ class SampleServerManager {
             // Request a string response from the provided URL
             JsonObjectRequest stringRequest = new JsonObjectRequest(
                     Request.Method.POST,
-                    uriBuilder.build().toString(),
+                    uri.toString(),
                     jsonBody,
                     response -> {
                         try {
@@ -72,14 +168,48 @@ class SampleServerManager {
         return res.getPromise();
     }
 
+    /**
+     * Returns an external token for the given user. A previously issued token is reused until
+     * shortly before it expires. Otherwise, a new one is requested; concurrent calls for the same
+     * user share a single request.
+     */
     Promise<String> getExternalToken(String username, String password) {
+        String cachedToken = externalTokenCache.get(username);
+        if (cachedToken != null) {
+            return fromResult(cachedToken);
+        }
+
+        int startedGeneration = getCacheGeneration();
+        return externalTokenRequests.execute(username, () -> requestExternalToken(username, password)
+                .continueOnUi(externalToken -> {
+                    // Don't cache the token, if the user logged out in the meantime.
+                    if (getCacheGeneration() == startedGeneration) {
+                        externalTokenCache.put(username, externalToken);
+                    }
+                    return externalToken;
+                }));
+    }
+
+    /**
+     * Discards the external token cached for the given user, e.g. because it has been rejected
+     * by the Tapkey authorization server.
+     */
+    void invalidateExternalToken(String username) {
+        externalTokenCache.invalidate(username);
+    }
+
+    private synchronized int getCacheGeneration() {
+        return cacheGeneration;
+    }
+
+    private Promise<String> requestExternalToken(String username, String password) {
         PromiseSource<String> res = new PromiseSource<>();
-        uriBuilder.path("user").appendPath("tapkey-token");
+        Uri uri = baseUri.buildUpon().path("user").appendPath("tapkey-token").build();
 
         // Request a Token for exchange with Tapkey using Basic Authentication
         JsonObjectRequest stringRequest = new JsonObjectRequest(
                 Request.Method.GET,
-                uriBuilder.build().toString(),
+                uri.toString(),
                 null,
                 response -> {
                     try {
@@ -92,14 +222,7 @@ class SampleServerManager {
 
             @Override
             public Map<String, String> getHeaders() {
-                HashMap<String, String> headers = new HashMap<>();
-                headers.put(
-                        "Authorization",
-                        "Basic " + Base64.encodeToString(
-                                (username + ":" + password).getBytes(),
-                                Base64.NO_WRAP)
-                );
-                return headers;
+                return getAuthorizationHeaders(username, password);
             }
 
         };
@@ -108,66 +231,189 @@ class SampleServerManager {
         return res.getPromise();
     }
 
+    /**
+     * Looks up the application grant information for the given grant IDs in the local grant cache.
+     * Grants that are not cached are omitted from the result.
+     */
+    Promise<List<ApplicationGrantDto>> getCachedGrants(String username, String[] grantIds) {
+        return getGrantCache(username).getAsync(grantIds);
+    }
+
+    /**
+     * Queries the sample server for application grant information. Large sets of grant IDs are
+     * split into multiple requests, which are sent concurrently. Concurrent calls for the same
+     * user and grant IDs share a single set of requests.
+     */
     Promise<List<ApplicationGrantDto>> getGrants(String username, String password, String[] grantIds) {
+        return grantRequests.execute(
+                username + "|" + GrantCache.getRequestKey(grantIds),
+                () -> GrantBatchFetcher.fetch(
+                        grantIds,
+                        MAX_GRANT_IDS_PER_REQUEST,
+                        MAX_CONCURRENT_GRANT_REQUESTS,
+                        chunk -> getGrantsChunk(username, password, chunk, true)));
+    }
+
+    /**
+     * Returns the number of getGrants() calls that were served by an already pending request.
+     */
+    long getCoalescedGrantRequestCount() {
+        return grantRequests.getCoalescedCount();
+    }
+
+    /**
+     * Returns the number of getExternalToken() calls that were served by an already pending
+     * request.
+     */
+    long getCoalescedExternalTokenRequestCount() {
+        return externalTokenRequests.getCoalescedCount();
+    }
+
+    private Promise<List<ApplicationGrantDto>> getGrantsChunk(String username, String password, String[] grantIds, boolean revalidate) {
         PromiseSource<List<ApplicationGrantDto>> res = new PromiseSource<>();
-        uriBuilder
+        Uri uri = baseUri.buildUpon()
                 .path("user")
                 .appendPath("grants")
-                .appendQueryParameter("grantIds", String.join(",", grantIds));
+                .appendQueryParameter("grantIds", String.join(",", grantIds))
+                .build();
 
-        // Request a Token for exchange with Tapkey using Basic Authentication
-        JsonArrayRequest stringRequest = new JsonArrayRequest(
-                Request.Method.GET,
-                uriBuilder.build().toString(),
-                null,
-                response -> {
-                    try {
-                        // Deserialize application-specific grant information
-                        List<ApplicationGrantDto> grants = new ArrayList<>(response.length());
-                        for (int i = 0; i < response.length(); i++) {
-                            JSONObject obj = response.getJSONObject(i);
-                            ApplicationGrantDto appGrant = new ApplicationGrantDto();
-                            appGrant.setGranteeFirstName(obj.optString("granteeFirstName", null));
-                            appGrant.setGranteeLastName(obj.optString("granteeLastName", null));
-                            appGrant.setIssuer(obj.optString("issuer", null));
-                            appGrant.setLockTitle(obj.optString("lockTitle", null));
-                            appGrant.setLockLocation(obj.optString("lockLocation", null));
-                            appGrant.setId(obj.getString("id"));
-                            appGrant.setPhysicalLockId(obj.getString("physicalLockId"));
-                            appGrant.setState(obj.getString("state"));
-                            appGrant.setTimeRestrictionIcal(obj.optString("timeRestrictionIcal", null));
-                            if (obj.has("validFrom")) {
-                                appGrant.setValidFrom(dateFormat.parse(obj.getString("validFrom")));
-                            }
-                            if (obj.has("validBefore")) {
-                                appGrant.setValidBefore(dateFormat.parse(obj.getString("validBefore")));
+        // Query grants, revalidating the locally cached grant information, if available
+        GrantsRequest grantsRequest = new GrantsRequest(
+                uri.toString(),
+                grantIds,
+                getAuthorizationHeaders(username, password),
+                getGrantCache(username),
+                revalidate,
+                res::setResult,
+                error -> {
+                    // Cached grants were evicted while the request was in flight, so fetch them
+                    // again, unconditionally this time.
+                    if (revalidate && error instanceof GrantsRequest.NotCachedError) {
+                        Log.d(TAG, "Grants evicted during revalidation, fetching them again.");
+                        getGrantsChunk(username, password, grantIds, false)
+                                .continueOnUi(grants -> {
+                                    res.setResult(grants);
+                                    return null;
+                                })
+                                .catchOnUi(e -> {
+                                    res.setException(e);
+                                    return null;
+                                })
+                                .conclude();
+                        return;
+                    }
+                    res.setException(new Exception(error.getCause()));
+                });
+
+        queue.add(grantsRequest);
+        return res.getPromise();
+    }
+
+    /**
+     * Synchronizes the locally stored grant information with the sample server and returns the
+     * grants with the given IDs.
+     *
+     * Only the changes since the last synchronization, identified by a watermark, are
+     * transferred. If the server rejects the watermark, all grants are synchronized again. Grants
+     * that are still missing afterwards, e.g. because they were evicted from the local store, are
+     * fetched via {@link #getGrants(String, String, String[])}. If the server doesn't support delta
+     * synchronization, all grants are fetched via {@link #getGrants(String, String, String[])}.
+     */
+    Promise<List<ApplicationGrantDto>> syncGrants(String username, String password, String[] grantIds) {
+        if (deltaSyncUnsupported) {
+            return getGrants(username, password, grantIds);
+        }
+
+        return grantSyncRequests.execute(username, () -> synchronizeGrantChanges(username, password))
+                .continueAsyncOnUi(synced -> synced
+                        ? getSynchronizedGrants(username, password, grantIds)
+                        : getGrants(username, password, grantIds));
+    }
+
+    private Promise<Boolean> synchronizeGrantChanges(String username, String password) {
+        return getGrantCache(username).getWatermarkAsync()
+                .continueAsyncOnUi(watermark -> requestGrantChanges(username, password, watermark)
+                        .continueAsyncOnUi(outcome -> {
+                            if (outcome == SyncOutcome.WATERMARK_REJECTED) {
+                                Log.i(TAG, "Grant watermark was rejected, synchronizing all grants.");
+                                return requestGrantChanges(username, password, null);
                             }
-                            grants.add(appGrant);
-                        }
-                        res.setResult(grants);
-                    } catch (JSONException e) {
-                        res.setException(e);
-                    } catch (ParseException e) {
-                        res.setException(e);
+                            return fromResult(outcome);
+                        }))
+                .continueOnUi(outcome -> outcome == SyncOutcome.SYNCHRONIZED);
+    }
+
+    private Promise<SyncOutcome> requestGrantChanges(String username, String password, String watermark) {
+        PromiseSource<SyncOutcome> res = new PromiseSource<>();
+        Uri.Builder uriBuilder = baseUri.buildUpon()
+                .path("user")
+                .appendPath("grants")
+                .appendPath("changes");
+        if (watermark != null) {
+            uriBuilder.appendQueryParameter("since", watermark);
+        }
+
+        GrantChangesRequest request = new GrantChangesRequest(
+                uriBuilder.build().toString(),
+                watermark == null,
+                getAuthorizationHeaders(username, password),
+                getGrantCache(username),
+                changes -> res.setResult(SyncOutcome.SYNCHRONIZED),
+                error -> {
+                    int statusCode = (error.networkResponse != null) ? error.networkResponse.statusCode : 0;
+                    if (statusCode == HttpURLConnection.HTTP_GONE && watermark != null) {
+                        res.setResult(SyncOutcome.WATERMARK_REJECTED);
+                    } else if (statusCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                        Log.i(TAG, "Sample server doesn't support delta synchronization of grants.");
+                        deltaSyncUnsupported = true;
+                        res.setResult(SyncOutcome.UNSUPPORTED);
+                    } else {
+                        res.setException(new Exception(error.getCause()));
                     }
-                },
-                error -> res.setException(new Exception(error.getCause()))) {
+                });
 
-            @Override
-            public Map<String, String> getHeaders() {
-                HashMap<String, String> headers = new HashMap<>();
-                headers.put(
-                        "Authorization",
-                        "Basic " + Base64.encodeToString(
-                                (username + ":" + password).getBytes(),
-                                Base64.NO_WRAP)
-                );
-                return headers;
-            }
+        queue.add(request);
+        return res.getPromise();
+    }
 
-        };
+    private Promise<List<ApplicationGrantDto>> getSynchronizedGrants(String username, String password, String[] grantIds) {
+        return getGrantCache(username).getAsync(grantIds)
+                .continueAsyncOnUi(grants -> {
+                    if (grants.size() == grantIds.length) {
+                        return fromResult(grants);
+                    }
 
-        queue.add(stringRequest);
+                    Set<String> synchronizedIds = new HashSet<>(grants.size());
+                    for (ApplicationGrantDto grant : grants) {
+                        synchronizedIds.add(grant.getId());
+                    }
+                    String[] missingIds = Arrays.stream(grantIds)
+                            .filter(grantId -> !synchronizedIds.contains(grantId))
+                            .toArray(String[]::new);
+
+                    return getGrants(username, password, missingIds)
+                            .continueOnUi(missingGrants -> {
+                                List<ApplicationGrantDto> res = new ArrayList<>(grants);
+                                res.addAll(missingGrants);
+                                return res;
+                            });
+                });
+    }
+
+    private static Map<String, String> getAuthorizationHeaders(String username, String password) {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put(
+                "Authorization",
+                "Basic " + Base64.encodeToString(
+                        (username + ":" + password).getBytes(),
+                        Base64.NO_WRAP)
+        );
+        return headers;
+    }
+
+    private static <T> Promise<T> fromResult(T result) {
+        PromiseSource<T> res = new PromiseSource<>();
+        res.setResult(result);
         return res.getPromise();
     }
 }
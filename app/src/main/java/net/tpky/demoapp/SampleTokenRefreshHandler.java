@@ -15,13 +15,11 @@ class SampleTokenRefreshHandler implements TokenRefreshHandler {
     private static final String TAG = MainActivity.class.getSimpleName();
 
     private final Context context;
-    private final TapkeyTokenExchangeManager tokenExchangeManager;
-    private final SampleServerManager sampleServerManager;
+    private final TokenLifecycleManager tokenLifecycleManager;
 
-    SampleTokenRefreshHandler(Context context) {
+    SampleTokenRefreshHandler(Context context, TokenLifecycleManager tokenLifecycleManager) {
         this.context = context;
-        this.tokenExchangeManager = new TapkeyTokenExchangeManager(context);
-        this.sampleServerManager = new SampleServerManager(context);
+        this.tokenLifecycleManager = tokenLifecycleManager;
     }
 
     @Override
@@ -31,12 +29,9 @@ class SampleTokenRefreshHandler implements TokenRefreshHandler {
             throw new TkException(AuthenticationHandlerErrorCodes.TokenRefreshFailed);
         }
 
-        return sampleServerManager.getExternalToken(
-                AuthStateManager.getUsername(context),
-                AuthStateManager.getPassword(context)
-        )
-                .continueAsyncOnUi(tokenExchangeManager::exchangeToken)
-                .continueOnUi(tokenResponse -> tokenResponse.accessToken)
+        // Usually, a new token has been obtained in the background already. Otherwise, it is
+        // obtained from the sample server and the Tapkey authorization server now.
+        return tokenLifecycleManager.getNewAccessTokenAsync()
                 .catchOnUi(ex -> {
                     throw new TkException(AuthenticationHandlerErrorCodes.TokenRefreshFailed);
                 });
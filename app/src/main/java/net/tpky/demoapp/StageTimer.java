@@ -0,0 +1,59 @@
+package net.tpky.demoapp;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records the durations of the consecutive stages of a multi-stage operation, e.g. the login
+ * flow, for diagnostic purposes.
+ */
+class StageTimer {
+
+    private final String name;
+    private final long startTime;
+    private final List<String> stages = new ArrayList<>();
+    private final List<Long> durations = new ArrayList<>();
+
+    private long lastMarkTime;
+
+    StageTimer(String name) {
+        this.name = name;
+        this.startTime = SystemClock.elapsedRealtime();
+        this.lastMarkTime = startTime;
+    }
+
+    /**
+     * Marks the end of the stage with the given name, which started at the previous mark, or when
+     * the timer was created.
+     *
+     * @return the duration of the stage in milliseconds.
+     */
+    synchronized long mark(String stage) {
+        long now = SystemClock.elapsedRealtime();
+        long duration = now - lastMarkTime;
+        lastMarkTime = now;
+        stages.add(stage);
+        durations.add(duration);
+        return duration;
+    }
+
+    /**
+     * Returns the time elapsed since the timer was created in milliseconds.
+     */
+    long getElapsedMs() {
+        return SystemClock.elapsedRealtime() - startTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(name).append(':');
+        for (int i = 0; i < stages.size(); i++) {
+            sb.append(String.format(Locale.US, " %s=%dms", stages.get(i), durations.get(i)));
+        }
+        sb.append(String.format(Locale.US, " total=%dms", getElapsedMs()));
+        return sb.toString();
+    }
+}
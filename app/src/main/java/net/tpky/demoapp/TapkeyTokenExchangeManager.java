@@ -1,42 +1,97 @@
 package net.tpky.demoapp;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.tapkey.mobile.concurrent.Promise;
 import com.tapkey.mobile.concurrent.PromiseSource;
 
+import net.openid.appauth.AuthorizationException;
 import net.openid.appauth.AuthorizationService;
 import net.openid.appauth.AuthorizationServiceConfiguration;
 import net.openid.appauth.TokenRequest;
 import net.openid.appauth.TokenResponse;
 
+import org.json.JSONException;
+
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Exchanges external tokens for Tapkey access tokens.
+ *
+ * A single instance, owned by the {@link App}, is shared by all callers. The authorization
+ * server's discovery document is cached in memory and on disk for {@link #CONFIGURATION_TTL_MS},
+ * so that a token exchange usually takes a single round-trip. The cached configuration is read from
+ * disk on a background thread on first use, e.g. during the login screen's warm-up.
+ */
 class TapkeyTokenExchangeManager {
 
     private static final String TAG = TapkeyTokenExchangeManager.class.getSimpleName();
 
-    private Context context;
+    private static final String PREFERENCES_NAME = "tapkey_token_exchange";
+    private static final String KEY_CONFIGURATION = "KEY_CONFIGURATION";
+    private static final String KEY_CONFIGURATION_FETCHED_AT = "KEY_CONFIGURATION_FETCHED_AT";
+
+    private static final long CONFIGURATION_TTL_MS = 24 * 60 * 60 * 1000;
+
+    private final Context context;
+    private final Uri authorizationServer;
+    private final RequestCoalescer<String, AuthorizationServiceConfiguration> configurationRequests = new RequestCoalescer<>("Authorization server configuration");
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+
+    private AuthorizationService authService;
+
+    private AuthorizationServiceConfiguration configuration;
+    private long configurationFetchedAt;
+    private boolean configurationLoaded;
+
+    private long configurationCacheHits;
+    private long configurationCacheMisses;
+    private long configurationFetchTimeMs;
 
     TapkeyTokenExchangeManager(Context context) {
-        this.context = context;
+        this.context = context.getApplicationContext();
+        this.authorizationServer = new Uri.Builder()
+                .scheme(context.getString(R.string.tapkey_authorization_server_scheme))
+                .encodedAuthority(context.getString(R.string.tapkey_authorization_server_authority))
+                .build();
     }
 
-    private Promise<AuthorizationServiceConfiguration> getAuthorizationServiceConfiguration() {
+    /**
+     * Returns the authorization server's configuration, fetching it only if there is no cached
+     * configuration, or the cached configuration has expired.
+     */
+    Promise<AuthorizationServiceConfiguration> getAuthorizationServiceConfiguration() {
+        return loadConfigurationAsync()
+                .continueAsyncOnUi(ignore -> {
+                    AuthorizationServiceConfiguration cached = getCachedConfiguration();
+                    if (cached != null) {
+                        PromiseSource<AuthorizationServiceConfiguration> res = new PromiseSource<>();
+                        res.setResult(cached);
+                        return res.getPromise();
+                    }
+
+                    return configurationRequests.execute("configuration", this::fetchAuthorizationServiceConfiguration);
+                });
+    }
+
+    private Promise<AuthorizationServiceConfiguration> fetchAuthorizationServiceConfiguration() {
         PromiseSource<AuthorizationServiceConfiguration> res = new PromiseSource<>();
-        Uri.Builder builder = new Uri.Builder();
-        Uri authorizationServer = builder.scheme(context.getString(R.string.tapkey_authorization_server_scheme))
-                .encodedAuthority(context.getString(R.string.tapkey_authorization_server_authority))
-                .build();
+        long startTime = SystemClock.elapsedRealtime();
 
         AuthorizationServiceConfiguration.fetchFromIssuer(authorizationServer, (serviceConfiguration, ex) -> {
             if (ex != null) {
                 Log.e(TAG, "failed to fetch authorization server configuration");
                 res.setException(ex);
+                return;
             }
+            onConfigurationFetched(serviceConfiguration, SystemClock.elapsedRealtime() - startTime);
             res.setResult(serviceConfiguration);
         });
         return res.getPromise();
@@ -53,7 +108,6 @@ class TapkeyTokenExchangeManager {
         return this.getAuthorizationServiceConfiguration()
                 .continueAsyncOnUi(serviceConfiguration -> {
                     PromiseSource<TokenResponse> res = new PromiseSource<>();
-                    AuthorizationService authService = new AuthorizationService(context);
                     TokenRequest.Builder tokenRequestBuilder =
                             new TokenRequest.Builder(serviceConfiguration, context.getString(R.string.tapkey_oauth_client_id))
                                     .setCodeVerifier(null)
@@ -71,9 +125,14 @@ class TapkeyTokenExchangeManager {
                                         put("requested_token_type", "access_token");
                                     }});
                     TokenRequest tokenRequest = tokenRequestBuilder.build();
-                    authService.performTokenRequest(tokenRequest, (response, ex) -> {
+                    getAuthorizationService().performTokenRequest(tokenRequest, (response, ex) -> {
                         if (ex != null) {
                             Log.e(TAG, "failed to carry out token exchange");
+
+                            // The cached configuration might be outdated, fetch it again next time.
+                            if (isEndpointFailure(ex)) {
+                                invalidateConfiguration();
+                            }
                             res.setException(ex);
                             return;
                         }
@@ -82,4 +141,135 @@ class TapkeyTokenExchangeManager {
                     return res.getPromise();
                 });
     }
+
+    /**
+     * Returns the number of configuration lookups that were served from the cache.
+     */
+    synchronized long getConfigurationCacheHitCount() {
+        return configurationCacheHits;
+    }
+
+    /**
+     * Returns the number of configuration lookups that required fetching the configuration.
+     */
+    synchronized long getConfigurationCacheMissCount() {
+        return configurationCacheMisses;
+    }
+
+    /**
+     * Returns an estimate of the latency saved by serving configuration lookups from the cache,
+     * based on the average time it took to fetch the configuration.
+     */
+    synchronized long getSavedConfigurationLatencyMs() {
+        long fetches = configurationCacheMisses;
+        return (fetches == 0) ? 0 : configurationCacheHits * configurationFetchTimeMs / fetches;
+    }
+
+    /**
+     * Releases the AuthorizationService used for token exchanges.
+     */
+    synchronized void close() {
+        ioExecutor.shutdown();
+        if (authService != null) {
+            authService.dispose();
+            authService = null;
+        }
+    }
+
+    private synchronized AuthorizationService getAuthorizationService() {
+        if (authService == null) {
+            authService = new AuthorizationService(context);
+        }
+        return authService;
+    }
+
+    private synchronized AuthorizationServiceConfiguration getCachedConfiguration() {
+        if (configuration != null && System.currentTimeMillis() - configurationFetchedAt < CONFIGURATION_TTL_MS) {
+            configurationCacheHits++;
+            Log.d(TAG, String.format("Authorization server configuration served from cache (%d hits, %d misses, ~%d ms saved).",
+                    configurationCacheHits, configurationCacheMisses, getSavedConfigurationLatencyMs()));
+            return configuration;
+        }
+
+        return null;
+    }
+
+    private synchronized void onConfigurationFetched(AuthorizationServiceConfiguration serviceConfiguration, long fetchTimeMs) {
+        configurationCacheMisses++;
+        configurationFetchTimeMs += fetchTimeMs;
+
+        configuration = serviceConfiguration;
+        configurationFetchedAt = System.currentTimeMillis();
+
+        getPreferences().edit()
+                .putString(KEY_CONFIGURATION, serviceConfiguration.toJsonString())
+                .putLong(KEY_CONFIGURATION_FETCHED_AT, configurationFetchedAt)
+                .apply();
+    }
+
+    private synchronized void invalidateConfiguration() {
+        configuration = null;
+        getPreferences().edit()
+                .remove(KEY_CONFIGURATION)
+                .remove(KEY_CONFIGURATION_FETCHED_AT)
+                .apply();
+    }
+
+    /**
+     * Reads the cached configuration from disk on the I/O thread, unless it has been read already.
+     */
+    private Promise<Void> loadConfigurationAsync() {
+        PromiseSource<Void> res = new PromiseSource<>();
+        synchronized (this) {
+            if (configurationLoaded) {
+                res.setResult(null);
+                return res.getPromise();
+            }
+        }
+
+        ioExecutor.execute(() -> {
+            loadConfiguration();
+            res.setResult(null);
+        });
+        return res.getPromise();
+    }
+
+    private void loadConfiguration() {
+        // Reading the preferences for the first time hits the disk, so do it outside the lock.
+        SharedPreferences preferences = getPreferences();
+        String json = preferences.getString(KEY_CONFIGURATION, null);
+        long fetchedAt = preferences.getLong(KEY_CONFIGURATION_FETCHED_AT, 0);
+
+        synchronized (this) {
+            if (configurationLoaded) {
+                return;
+            }
+            configurationLoaded = true;
+
+            if (json == null) {
+                return;
+            }
+            try {
+                configuration = AuthorizationServiceConfiguration.fromJson(json);
+                configurationFetchedAt = fetchedAt;
+            } catch (JSONException e) {
+                Log.e(TAG, "Discarding corrupt authorization server configuration.", e);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given token exchange failure suggests that the cached configuration is
+     * outdated: the token endpoint couldn't be reached, or didn't answer like a token endpoint,
+     * e.g. with 404 Not Found. Errors reported by the token endpoint, like invalid_grant, don't.
+     */
+    private static boolean isEndpointFailure(AuthorizationException ex) {
+        return AuthorizationException.GeneralErrors.NETWORK_ERROR.equals(ex)
+                || AuthorizationException.GeneralErrors.JSON_DESERIALIZATION_ERROR.equals(ex)
+                || AuthorizationException.GeneralErrors.INVALID_DISCOVERY_DOCUMENT.equals(ex);
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
 }
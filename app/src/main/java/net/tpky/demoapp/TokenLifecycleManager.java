@@ -0,0 +1,191 @@
+package net.tpky.demoapp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import net.openid.appauth.TokenResponse;
+
+/**
+ * Keeps track of the Tapkey access token's lifecycle.
+ *
+ * Shortly before the access token handed to the Tapkey SDK expires, a new token is obtained in the
+ * background, so that the SDK's next refresh request can be answered immediately instead of
+ * running the getExternalToken/exchangeToken chain inline. Concurrent refreshes are collapsed into
+ * one per user, and failed background refreshes are retried with bounded exponential backoff.
+ * Refreshes still pending when the tokens are discarded, e.g. because the user signed out, don't
+ * store or hand out their tokens.
+ *
+ * A single instance is owned by the {@link App}.
+ */
+class TokenLifecycleManager {
+
+    private static final String TAG = TokenLifecycleManager.class.getSimpleName();
+
+    // How long before expiry the next token is obtained in the background.
+    private static final long REFRESH_LEAD_MS = 2 * 60 * 1000;
+
+    // Prefetched tokens that expire sooner than this are not handed out.
+    private static final long MIN_REMAINING_VALIDITY_MS = 30 * 1000;
+
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    private static final int MAX_BACKGROUND_ATTEMPTS = 6;
+
+    private final Context context;
+    private final SampleServerManager sampleServerManager;
+    private final TapkeyTokenExchangeManager tokenExchangeManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final RequestCoalescer<String, TokenResponse> refreshRequests = new RequestCoalescer<>("Token refresh");
+    private final Runnable backgroundRefresh = this::refreshInBackground;
+
+    // The token most recently handed to the Tapkey SDK.
+    private TokenResponse handedOutToken;
+
+    // A token obtained in the background, which has not been handed to the Tapkey SDK yet.
+    private TokenResponse prefetchedToken;
+
+    private int failedBackgroundAttempts;
+
+    // Incremented whenever the tokens are discarded. Refreshes started before are stale.
+    private int generation;
+
+    TokenLifecycleManager(Context context, SampleServerManager sampleServerManager, TapkeyTokenExchangeManager tokenExchangeManager) {
+        this.context = context.getApplicationContext();
+        this.sampleServerManager = sampleServerManager;
+        this.tokenExchangeManager = tokenExchangeManager;
+    }
+
+    /**
+     * Returns a new access token for the Tapkey SDK. If a token has been obtained in the
+     * background already, it is returned right away. Otherwise, a token is obtained from the
+     * backends; concurrent calls share a single refresh.
+     */
+    Promise<String> getNewAccessTokenAsync() {
+        int startedGeneration;
+        synchronized (this) {
+            TokenResponse prefetched = prefetchedToken;
+            if (prefetched != null && getRemainingValidity(prefetched) > MIN_REMAINING_VALIDITY_MS) {
+                Log.d(TAG, "Handing out access token obtained in the background.");
+                onTokenIssued(prefetched);
+                PromiseSource<String> res = new PromiseSource<>();
+                res.setResult(prefetched.accessToken);
+                return res.getPromise();
+            }
+            prefetchedToken = null;
+            startedGeneration = generation;
+        }
+
+        return refresh().continueOnUi(tokenResponse -> {
+            synchronized (this) {
+                if (generation != startedGeneration) {
+                    throw new IllegalStateException("Tokens were discarded while obtaining an access token.");
+                }
+                onTokenIssued(tokenResponse);
+            }
+            return tokenResponse.accessToken;
+        });
+    }
+
+    /**
+     * Notifies this instance that the given token has been handed to the Tapkey SDK, e.g. after
+     * logging in, and schedules obtaining the next token shortly before it expires.
+     */
+    synchronized void onTokenIssued(TokenResponse tokenResponse) {
+        handedOutToken = tokenResponse;
+        if (prefetchedToken == tokenResponse) {
+            prefetchedToken = null;
+        }
+        failedBackgroundAttempts = 0;
+
+        handler.removeCallbacks(backgroundRefresh);
+        if (tokenResponse.accessTokenExpirationTime == null) {
+            return;
+        }
+
+        long remaining = getRemainingValidity(tokenResponse);
+        long delay = Math.max(remaining - REFRESH_LEAD_MS, remaining / 2);
+        if (delay > 0) {
+            handler.postDelayed(backgroundRefresh, delay);
+        }
+    }
+
+    /**
+     * Discards all tokens and stops refreshing in the background, e.g. after the user logged out.
+     */
+    synchronized void reset() {
+        generation++;
+        handler.removeCallbacks(backgroundRefresh);
+        handedOutToken = null;
+        prefetchedToken = null;
+        failedBackgroundAttempts = 0;
+    }
+
+    private Promise<TokenResponse> refresh() {
+        // Only refreshes for the same user may be shared.
+        String username = AuthStateManager.getUsername(context);
+        return refreshRequests.execute(username, () -> sampleServerManager.getExternalToken(
+                username,
+                AuthStateManager.getPassword(context)
+        ).continueAsyncOnUi(externalToken -> tokenExchangeManager.exchangeToken(externalToken)
+                .catchOnUi(e -> {
+                    // The cached external token might have been rejected, don't reuse it.
+                    sampleServerManager.invalidateExternalToken(username);
+                    throw e;
+                })));
+    }
+
+    private void refreshInBackground() {
+        if (!AuthStateManager.isLoggedIn(context)) {
+            return;
+        }
+
+        int startedGeneration;
+        synchronized (this) {
+            startedGeneration = generation;
+        }
+
+        Log.d(TAG, "Obtaining next access token in the background.");
+        refresh()
+                .continueOnUi(tokenResponse -> {
+                    synchronized (this) {
+                        if (generation != startedGeneration) {
+                            return null;
+                        }
+                        failedBackgroundAttempts = 0;
+                        // The token might have been handed out already to a concurrent caller.
+                        if (tokenResponse != handedOutToken) {
+                            prefetchedToken = tokenResponse;
+                        }
+                    }
+                    return null;
+                })
+                .catchOnUi(e -> {
+                    synchronized (this) {
+                        if (generation != startedGeneration) {
+                            return null;
+                        }
+                        failedBackgroundAttempts++;
+                        if (failedBackgroundAttempts >= MAX_BACKGROUND_ATTEMPTS) {
+                            Log.w(TAG, "Giving up obtaining the next access token in the background.", e);
+                            return null;
+                        }
+
+                        long backoff = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << (failedBackgroundAttempts - 1));
+                        Log.w(TAG, "Obtaining the next access token failed, retrying in " + backoff + " ms.", e);
+                        handler.postDelayed(backgroundRefresh, backoff);
+                    }
+                    return null;
+                })
+                .conclude();
+    }
+
+    private static long getRemainingValidity(TokenResponse tokenResponse) {
+        Long expirationTime = tokenResponse.accessTokenExpirationTime;
+        return (expirationTime == null) ? Long.MAX_VALUE : expirationTime - System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,159 @@
+package net.tpky.demoapp;
+
+import android.content.Context;
+import android.util.AtomicFile;
+
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Collects how long the phases of triggering a lock take, per physical lock ID, to find out where
+ * time goes when unlocking is slow.
+ *
+ * Every phase of every lock has a {@link LatencyHistogram}, so memory use is fixed no matter how
+ * often locks are triggered. Locks beyond the first {@link #MAX_LOCKS} share the histograms of
+ * {@link #OTHER_LOCKS}. Recording is lock-free and may happen from any thread.
+ */
+class TriggerLatencyRecorder {
+
+    enum Phase {
+        /** From the tap until the lock's Bluetooth address has been resolved. */
+        LOOKUP,
+        /** Until a connection to the lock has been established. */
+        CONNECT,
+        /** Until the trigger lock command has been executed. */
+        EXECUTE,
+        /** Until the result has been displayed. */
+        FEEDBACK,
+        /** From the tap until a successful result has been displayed. */
+        TOTAL,
+        /** From the tap until a failure has been displayed, including cancelled triggers. */
+        FAILED
+    }
+
+    static final int MAX_LOCKS = 32;
+    static final String OTHER_LOCKS = "other";
+
+    private static final String EXPORT_FILE_NAME = "trigger_latency.txt";
+
+    private final ConcurrentHashMap<String, LatencyHistogram[]> histograms = new ConcurrentHashMap<>();
+    private final File exportDir;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+
+    TriggerLatencyRecorder(Context context) {
+        // Prefer the app's external files, which can be pulled off the device without root.
+        File externalFilesDir = context.getExternalFilesDir(null);
+        this.exportDir = (externalFilesDir != null) ? externalFilesDir : context.getFilesDir();
+    }
+
+    /**
+     * Starts tracing a trigger of the given lock, which is happening now.
+     */
+    TriggerTrace startTrace(String physicalLockId) {
+        return new TriggerTrace(this, physicalLockId);
+    }
+
+    void record(String physicalLockId, Phase phase, long durationMs) {
+        getHistograms(physicalLockId)[phase.ordinal()].record(durationMs);
+    }
+
+    /**
+     * Returns a human readable report of the median, 95th and 99th percentile and maximum
+     * duration of every phase, per lock.
+     */
+    String formatReport() {
+        List<String> lockIds = new ArrayList<>(histograms.keySet());
+        Collections.sort(lockIds);
+
+        StringBuilder sb = new StringBuilder();
+        for (String lockId : lockIds) {
+            sb.append(lockId).append('\n');
+            LatencyHistogram[] lockHistograms = histograms.get(lockId);
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = lockHistograms[phase.ordinal()];
+                long count = histogram.getCount();
+                if (count == 0) {
+                    continue;
+                }
+                sb.append(String.format(Locale.US, "  %-8s n=%d p50=%dms p95=%dms p99=%dms max=%dms%n",
+                        phase, count,
+                        histogram.getPercentile(0.5),
+                        histogram.getPercentile(0.95),
+                        histogram.getPercentile(0.99),
+                        histogram.getMax()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Asynchronously writes the report to a file in the app's files.
+     *
+     * @return a promise completing with the file written.
+     */
+    Promise<File> exportAsync() {
+        PromiseSource<File> res = new PromiseSource<>();
+        String header = "Trigger latency report, " + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US).format(new Date()) + "\n\n";
+        String report = header + formatReport();
+
+        ioExecutor.execute(() -> {
+            AtomicFile file = new AtomicFile(new File(exportDir, EXPORT_FILE_NAME));
+            FileOutputStream out = null;
+            try {
+                out = file.startWrite();
+                out.write(report.getBytes(StandardCharsets.UTF_8));
+                file.finishWrite(out);
+                res.setResult(file.getBaseFile());
+            } catch (IOException e) {
+                if (out != null) {
+                    file.failWrite(out);
+                }
+                res.setException(e);
+            }
+        });
+        return res.getPromise();
+    }
+
+    void clear() {
+        histograms.clear();
+    }
+
+    void close() {
+        ioExecutor.shutdown();
+    }
+
+    private LatencyHistogram[] getHistograms(String physicalLockId) {
+        String key = (physicalLockId != null) ? physicalLockId : OTHER_LOCKS;
+        LatencyHistogram[] res = histograms.get(key);
+        if (res != null) {
+            return res;
+        }
+
+        // The limit may be exceeded slightly by concurrent first recordings of different locks.
+        if (histograms.size() >= MAX_LOCKS) {
+            key = OTHER_LOCKS;
+        }
+
+        LatencyHistogram[] created = new LatencyHistogram[Phase.values().length];
+        for (int i = 0; i < created.length; i++) {
+            created[i] = new LatencyHistogram();
+        }
+        res = histograms.putIfAbsent(key, created);
+        return (res != null) ? res : created;
+    }
+}
@@ -0,0 +1,190 @@
+package net.tpky.demoapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Derives the timeout for triggering a lock from how long connecting to it and executing
+ * commands took before, so that triggering healthy locks fails fast while slow or distant locks
+ * get the time they need.
+ *
+ * Like TCP's retransmission timeout, the timeout covers the moving average plus four times the
+ * moving mean deviation of both phases. It is doubled after every timeout, up to
+ * {@link #MAX_BACKOFF} times, until the lock responds again. Locks without statistics get
+ * {@link #DEFAULT_TIMEOUT_MS}. Statistics are kept in the shared preferences, so they survive
+ * restarts. All methods are thread-safe.
+ */
+class TriggerPolicy {
+
+    private static final String TAG = TriggerPolicy.class.getSimpleName();
+
+    private static final String PREFERENCES_NAME = "trigger_policy";
+
+    static final int DEFAULT_TIMEOUT_MS = 15000;
+    static final int MIN_TIMEOUT_MS = 4000;
+    static final int MAX_TIMEOUT_MS = 30000;
+
+    private static final int MAX_BACKOFF = 4;
+    private static final int MAX_LOCKS = 64;
+
+    /**
+     * Moving average and mean deviation of a duration, as per RFC 6298.
+     */
+    private static class Estimate {
+        double average;
+        double deviation;
+        boolean sampled;
+
+        void add(long durationMs) {
+            if (!sampled) {
+                average = durationMs;
+                deviation = durationMs / 2.0;
+                sampled = true;
+                return;
+            }
+            deviation = 0.75 * deviation + 0.25 * Math.abs(average - durationMs);
+            average = 0.875 * average + 0.125 * durationMs;
+        }
+
+        double getBound() {
+            return average + 4 * deviation;
+        }
+    }
+
+    private static class LockStats {
+        final Estimate connect = new Estimate();
+        final Estimate execute = new Estimate();
+        int backoff = 1;
+        long updatedAt;
+    }
+
+    private final SharedPreferences preferences;
+    private final Map<String, LockStats> statsByLockId = new HashMap<>();
+
+    TriggerPolicy(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    /**
+     * Returns how long a single attempt to trigger the given lock may take.
+     */
+    synchronized int getTimeoutMs(String physicalLockId) {
+        LockStats stats = statsByLockId.get(physicalLockId);
+        if (stats == null || !stats.connect.sampled || !stats.execute.sampled) {
+            return DEFAULT_TIMEOUT_MS;
+        }
+
+        double timeout = (stats.connect.getBound() + stats.execute.getBound()) * stats.backoff;
+        return (int) Math.max(MIN_TIMEOUT_MS, Math.min(MAX_TIMEOUT_MS, timeout));
+    }
+
+    synchronized void onConnected(String physicalLockId, long durationMs) {
+        LockStats stats = getStats(physicalLockId);
+        stats.connect.add(durationMs);
+        stats.backoff = 1;
+        save(physicalLockId, stats);
+    }
+
+    synchronized void onExecuted(String physicalLockId, long durationMs) {
+        LockStats stats = getStats(physicalLockId);
+        stats.execute.add(durationMs);
+        stats.backoff = 1;
+        save(physicalLockId, stats);
+    }
+
+    synchronized void onTimedOut(String physicalLockId) {
+        LockStats stats = getStats(physicalLockId);
+        stats.backoff = Math.min(MAX_BACKOFF, stats.backoff * 2);
+        save(physicalLockId, stats);
+    }
+
+    /**
+     * Forgets all statistics, e.g. after the user logged out.
+     */
+    synchronized void clear() {
+        statsByLockId.clear();
+        preferences.edit().clear().apply();
+    }
+
+    private LockStats getStats(String physicalLockId) {
+        LockStats res = statsByLockId.get(physicalLockId);
+        if (res != null) {
+            return res;
+        }
+
+        // Make room by forgetting the lock updated least recently.
+        if (statsByLockId.size() >= MAX_LOCKS) {
+            String oldest = null;
+            long oldestUpdatedAt = Long.MAX_VALUE;
+            for (Map.Entry<String, LockStats> entry : statsByLockId.entrySet()) {
+                if (entry.getValue().updatedAt < oldestUpdatedAt) {
+                    oldest = entry.getKey();
+                    oldestUpdatedAt = entry.getValue().updatedAt;
+                }
+            }
+            statsByLockId.remove(oldest);
+            preferences.edit().remove(oldest).apply();
+        }
+
+        res = new LockStats();
+        statsByLockId.put(physicalLockId, res);
+        return res;
+    }
+
+    private void save(String physicalLockId, LockStats stats) {
+        stats.updatedAt = System.currentTimeMillis();
+        try {
+            JSONObject json = new JSONObject();
+            putEstimate(json, "connect", stats.connect);
+            putEstimate(json, "execute", stats.execute);
+            json.put("backoff", stats.backoff);
+            json.put("updatedAt", stats.updatedAt);
+            preferences.edit().putString(physicalLockId, json.toString()).apply();
+        } catch (JSONException e) {
+            Log.e(TAG, "Couldn't save trigger statistics of lock " + physicalLockId + ".", e);
+        }
+    }
+
+    private void load() {
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (!(entry.getValue() instanceof String)) {
+                continue;
+            }
+
+            try {
+                JSONObject json = new JSONObject((String) entry.getValue());
+                LockStats stats = new LockStats();
+                getEstimate(json, "connect", stats.connect);
+                getEstimate(json, "execute", stats.execute);
+                stats.backoff = json.getInt("backoff");
+                stats.updatedAt = json.getLong("updatedAt");
+                statsByLockId.put(entry.getKey(), stats);
+            } catch (JSONException e) {
+                Log.w(TAG, "Discarding corrupt trigger statistics of lock " + entry.getKey() + ".", e);
+            }
+        }
+    }
+
+    private static void putEstimate(JSONObject json, String name, Estimate estimate) throws JSONException {
+        if (estimate.sampled) {
+            json.put(name, estimate.average);
+            json.put(name + "Deviation", estimate.deviation);
+        }
+    }
+
+    private static void getEstimate(JSONObject json, String name, Estimate estimate) throws JSONException {
+        if (json.has(name)) {
+            estimate.average = json.getDouble(name);
+            estimate.deviation = json.getDouble(name + "Deviation");
+            estimate.sampled = true;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package net.tpky.demoapp;
+
+import com.tapkey.mobile.concurrent.CancellationToken;
+
+/**
+ * A tap on a lock's trigger button, handed to the connection executing the trigger lock command.
+ */
+class TriggerRequest {
+
+    final CancellationToken ct;
+    final TriggerTrace trace;
+
+    // Whether the command has been handed to the connection. Until then, the trigger can safely be
+    // retried.
+    volatile boolean commandStarted;
+
+    TriggerRequest(CancellationToken ct, TriggerTrace trace) {
+        this.ct = ct;
+        this.trace = trace;
+    }
+}
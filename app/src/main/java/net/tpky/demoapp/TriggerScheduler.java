@@ -0,0 +1,298 @@
+package net.tpky.demoapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.tapkey.mobile.concurrent.CancellationToken;
+import com.tapkey.mobile.concurrent.CancellationTokenSource;
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Runs the triggers of all locks, so that they don't compete for the Bluetooth radio.
+ *
+ * <ul>
+ *     <li>A lock is triggered at most once at a time. Triggering a lock which is already queued
+ *     or being triggered, e.g. because the user tapped twice, or through another key for the same
+ *     lock, doesn't start another trigger, but shares the result of the pending one.</li>
+ *     <li>At most the given number of locks are triggered at the same time, further triggers are
+ *     queued in the order they were requested.</li>
+ *     <li>Every caller cancels only its own wait, which completes with false right away. The
+ *     trigger itself is cancelled, or dropped from the queue, once all of its callers cancelled.
+ *     As cancellation tokens don't notify, the tokens of waiting callers are checked every
+ *     {@link #CANCELLATION_CHECK_INTERVAL_MS}.</li>
+ * </ul>
+ *
+ * All methods must be called on the UI thread.
+ */
+class TriggerScheduler {
+
+    private static final long CANCELLATION_CHECK_INTERVAL_MS = 100;
+
+    interface Operation {
+
+        /**
+         * Triggers the lock.
+         *
+         * @param ct cancelled once all callers waiting for the trigger cancelled.
+         */
+        Promise<Boolean> run(CancellationToken ct);
+    }
+
+    private static class Waiter {
+        final CancellationToken ct;
+        final PromiseSource<Boolean> result = new PromiseSource<>();
+
+        Waiter(CancellationToken ct) {
+            this.ct = ct;
+        }
+    }
+
+    private static class Entry {
+        final String physicalLockId;
+        final TriggerTrace trace;
+        final Operation operation;
+        final CancellationTokenSource cts = new CancellationTokenSource();
+        final List<Waiter> waiters = new ArrayList<>(1);
+        final long enqueuedAt = SystemClock.elapsedRealtime();
+        long startedAt;
+        boolean running;
+
+        Entry(String physicalLockId, TriggerTrace trace, Operation operation) {
+            this.physicalLockId = physicalLockId;
+            this.trace = trace;
+            this.operation = operation;
+        }
+    }
+
+    private final int maxConcurrentTriggers;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable checkCancellation = this::checkCancellation;
+
+    // The queued and running triggers by physical lock ID, in the order they were requested.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private int runningCount;
+
+    // The locks whose trigger is being cancelled. They aren't triggered again until it completed.
+    private final Set<String> cancellingLockIds = new HashSet<>();
+    private boolean cancellationCheckScheduled;
+
+    // Counters for diagnostics.
+    private long startedCount;
+    private long coalescedCount;
+    private long droppedCount;
+    private int maxQueueLength;
+
+    TriggerScheduler(int maxConcurrentTriggers) {
+        this.maxConcurrentTriggers = maxConcurrentTriggers;
+    }
+
+    /**
+     * Runs the given operation to trigger the given lock, once no other trigger of the lock is
+     * pending and fewer than the maximum number of triggers are running. If a trigger of the lock
+     * is pending already, the operation is discarded, the given trace follows the pending
+     * trigger's trace, and the pending trigger's result is returned.
+     *
+     * @param ct the token cancelling the caller's wait.
+     * @param trace the trace of the caller's tap.
+     * @return a promise completing with whether the lock was triggered, or with false if the
+     * caller cancelled.
+     */
+    Promise<Boolean> schedule(String physicalLockId, CancellationToken ct, TriggerTrace trace, Operation operation) {
+        Waiter waiter = new Waiter(ct);
+
+        Entry entry = entries.get(physicalLockId);
+        if (entry != null) {
+            coalescedCount++;
+            entry.waiters.add(waiter);
+            entry.trace.addFollower(trace);
+        } else {
+            entry = new Entry(physicalLockId, trace, operation);
+            entry.waiters.add(waiter);
+            entries.put(physicalLockId, entry);
+            maxQueueLength = Math.max(maxQueueLength, getQueueLength());
+            runNext();
+        }
+
+        scheduleCancellationCheck();
+        return waiter.result.getPromise();
+    }
+
+    /**
+     * Returns whether no triggers are queued or running.
+     */
+    boolean isIdle() {
+        return entries.isEmpty() && runningCount == 0;
+    }
+
+    /**
+     * Returns a human readable description of the queued and running triggers, for diagnostics.
+     */
+    String formatQueue() {
+        removeCancelledWaiters();
+
+        long now = SystemClock.elapsedRealtime();
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : entries.values()) {
+            sb.append(String.format(Locale.US, "%s %s for %dms, %d waiting%n",
+                    entry.physicalLockId,
+                    entry.running ? "running" : "queued",
+                    now - (entry.running ? entry.startedAt : entry.enqueuedAt),
+                    entry.waiters.size()));
+        }
+        sb.append(String.format(Locale.US, "%nrunning=%d/%d cancelling=%d queued=%d max queued=%d%nstarted=%d coalesced=%d dropped=%d",
+                runningCount, maxConcurrentTriggers, cancellingLockIds.size(), getQueueLength(), maxQueueLength,
+                startedCount, coalescedCount, droppedCount));
+        return sb.toString();
+    }
+
+    private int getQueueLength() {
+        // Cancelling triggers are running, but not in the entries anymore.
+        return entries.size() - (runningCount - cancellingLockIds.size());
+    }
+
+    private void scheduleCancellationCheck() {
+        if (!cancellationCheckScheduled && !entries.isEmpty()) {
+            cancellationCheckScheduled = true;
+            handler.postDelayed(checkCancellation, CANCELLATION_CHECK_INTERVAL_MS);
+        }
+    }
+
+    private void checkCancellation() {
+        cancellationCheckScheduled = false;
+        removeCancelledWaiters();
+        scheduleCancellationCheck();
+    }
+
+    /**
+     * Completes the waits of callers who cancelled. Queued triggers without callers left are
+     * dropped, running ones are cancelled.
+     */
+    private void removeCancelledWaiters() {
+        List<Waiter> cancelled = new ArrayList<>();
+        boolean dropped = false;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            removeCancelledWaiters(entry, cancelled);
+            if (!entry.waiters.isEmpty()) {
+                continue;
+            }
+            it.remove();
+            if (entry.running) {
+                // Still occupies the radio until the operation observed the cancellation.
+                entry.cts.requestCancellation();
+                cancellingLockIds.add(entry.physicalLockId);
+            } else {
+                droppedCount++;
+                dropped = true;
+            }
+        }
+
+        for (Waiter waiter : cancelled) {
+            waiter.result.setResult(false);
+        }
+        if (dropped) {
+            runNext();
+        }
+    }
+
+    private static void removeCancelledWaiters(Entry entry, List<Waiter> cancelled) {
+        Iterator<Waiter> it = entry.waiters.iterator();
+        while (it.hasNext()) {
+            Waiter waiter = it.next();
+            if (waiter.ct.isCancellationRequested()) {
+                it.remove();
+                cancelled.add(waiter);
+            }
+        }
+    }
+
+    private void runNext() {
+        // Collect first, as operations might complete right away, modifying the entries.
+        List<Entry> next = new ArrayList<>();
+        int available = maxConcurrentTriggers - runningCount;
+        for (Entry entry : entries.values()) {
+            if (next.size() >= available) {
+                break;
+            }
+            if (!entry.running && !cancellingLockIds.contains(entry.physicalLockId)) {
+                entry.running = true;
+                runningCount++;
+                next.add(entry);
+            }
+        }
+
+        for (Entry entry : next) {
+            run(entry);
+        }
+    }
+
+    private void run(Entry entry) {
+        List<Waiter> cancelled = new ArrayList<>();
+        removeCancelledWaiters(entry, cancelled);
+        if (entry.waiters.isEmpty()) {
+            droppedCount++;
+            entry.waiters.addAll(cancelled);
+            complete(entry, false, null);
+            return;
+        }
+        for (Waiter waiter : cancelled) {
+            waiter.result.setResult(false);
+        }
+
+        entry.startedAt = SystemClock.elapsedRealtime();
+        startedCount++;
+        Promise<Boolean> promise;
+        try {
+            promise = entry.operation.run(entry.cts.getToken());
+        } catch (Exception e) {
+            complete(entry, null, e);
+            return;
+        }
+
+        promise
+                .continueOnUi(triggered -> {
+                    complete(entry, triggered, null);
+                    return null;
+                })
+                .catchOnUi(e -> {
+                    complete(entry, null, e);
+                    return null;
+                })
+                .conclude();
+    }
+
+    private void complete(Entry entry, Boolean triggered, Exception e) {
+        if (!entries.remove(entry.physicalLockId, entry)) {
+            cancellingLockIds.remove(entry.physicalLockId);
+        }
+        runningCount--;
+
+        for (Waiter waiter : entry.waiters) {
+            if (waiter.ct.isCancellationRequested()) {
+                waiter.result.setResult(false);
+            } else if (e != null) {
+                waiter.result.setException(e);
+            } else {
+                waiter.result.setResult(triggered);
+            }
+        }
+
+        if (entries.isEmpty()) {
+            handler.removeCallbacks(checkCancellation);
+            cancellationCheckScheduled = false;
+        }
+        runNext();
+    }
+}
@@ -0,0 +1,75 @@
+package net.tpky.demoapp;
+
+import android.os.SystemClock;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Measures the phases of a single trigger of a lock and records them with the
+ * {@link TriggerLatencyRecorder}. Each phase lasts from the end of the previous one, or from the
+ * tap, until it is marked. Phases not reached, e.g. because the lock wasn't found, aren't recorded.
+ *
+ * Taps joining a trigger already in progress follow its trace: phases marked on the trace are
+ * marked on theirs, too, even after the trace itself has finished.
+ */
+class TriggerTrace {
+
+    private final TriggerLatencyRecorder recorder;
+    private final String physicalLockId;
+    private final long startTime;
+    private final List<TriggerTrace> followers = new CopyOnWriteArrayList<>();
+
+    private volatile long lastMarkTime;
+    private volatile boolean finished;
+
+    TriggerTrace(TriggerLatencyRecorder recorder, String physicalLockId) {
+        this.recorder = recorder;
+        this.physicalLockId = physicalLockId;
+        this.startTime = SystemClock.elapsedRealtime();
+        this.lastMarkTime = startTime;
+    }
+
+    /**
+     * Lets the given trace follow this one from now on.
+     */
+    void addFollower(TriggerTrace follower) {
+        followers.add(follower);
+    }
+
+    /**
+     * Marks the end of the given phase.
+     */
+    void mark(TriggerLatencyRecorder.Phase phase) {
+        for (TriggerTrace follower : followers) {
+            follower.mark(phase);
+        }
+        if (finished) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        recorder.record(physicalLockId, phase, now - lastMarkTime);
+        lastMarkTime = now;
+    }
+
+    /**
+     * Marks the end of the trigger, once its result has been displayed.
+     *
+     * @param success whether the lock was triggered.
+     */
+    void finish(boolean success) {
+        if (finished) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (success) {
+            recorder.record(physicalLockId, TriggerLatencyRecorder.Phase.FEEDBACK, now - lastMarkTime);
+            recorder.record(physicalLockId, TriggerLatencyRecorder.Phase.TOTAL, now - startTime);
+        } else {
+            recorder.record(physicalLockId, TriggerLatencyRecorder.Phase.FAILED, now - startTime);
+        }
+        finished = true;
+    }
+}
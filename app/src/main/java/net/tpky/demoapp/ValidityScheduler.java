@@ -0,0 +1,178 @@
+package net.tpky.demoapp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Notifies its listener when application grants become valid or invalid, e.g. because their
+ * validity period starts or ends, or their time restriction opens or closes.
+ *
+ * The next transition of every grant is kept in a priority queue, and a single timer is set for
+ * the earliest one. When it fires, only the grants due are reported and rescheduled. Grants
+ * without pending transitions are not queued at all. The scheduler follows the
+ * {@link GrantRepository} it is registered with. All methods must be called, the repository must
+ * be modified, and the listener is notified, on the UI thread.
+ */
+class ValidityScheduler implements GrantRepository.Listener {
+
+    interface Listener {
+        void onValidityChanged(Collection<String> grantIds);
+    }
+
+    private static class Transition implements Comparable<Transition> {
+        final long time;
+        final String grantId;
+
+        Transition(long time, String grantId) {
+            this.time = time;
+            this.grantId = grantId;
+        }
+
+        @Override
+        public int compareTo(Transition o) {
+            return Long.compare(time, o.time);
+        }
+    }
+
+    private final GrantRepository grantRepository;
+    private final GrantValidity grantValidity;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable fire = this::fire;
+
+    // The queued transitions. Entries replaced by a later transition of the same grant, or
+    // belonging to removed grants, are skipped when they come up.
+    private final PriorityQueue<Transition> queue = new PriorityQueue<>();
+    private final Map<String, Long> nextTransitions = new HashMap<>();
+
+    private boolean started;
+
+    // The time the timer is set for, 0 if it isn't set.
+    private long scheduledTime;
+
+    ValidityScheduler(GrantRepository grantRepository, GrantValidity grantValidity, Listener listener) {
+        this.grantRepository = grantRepository;
+        this.grantValidity = grantValidity;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onGrantPut(ApplicationGrantDto grant, ApplicationGrantDto previous) {
+        schedule(grant, System.currentTimeMillis());
+        updateTimer();
+    }
+
+    @Override
+    public void onGrantRemoved(ApplicationGrantDto grant) {
+        nextTransitions.remove(grant.getId());
+        compact();
+        updateTimer();
+    }
+
+    /**
+     * Starts firing transitions. Transitions that passed while stopped fire right away.
+     */
+    void start() {
+        started = true;
+        updateTimer();
+    }
+
+    /**
+     * Stops firing transitions, e.g. while the key list isn't visible.
+     */
+    void stop() {
+        started = false;
+        handler.removeCallbacks(fire);
+        scheduledTime = 0;
+    }
+
+    private void schedule(ApplicationGrantDto grant, long now) {
+        if (grant == null) {
+            return;
+        }
+
+        long next = grantValidity.getNextTransition(grant, now);
+        if (next == Long.MAX_VALUE) {
+            nextTransitions.remove(grant.getId());
+            return;
+        }
+        nextTransitions.put(grant.getId(), next);
+        queue.add(new Transition(next, grant.getId()));
+        compact();
+    }
+
+    /**
+     * Drops stale entries once they make up most of the queue.
+     */
+    private void compact() {
+        if (queue.size() <= 2 * nextTransitions.size() + 16) {
+            return;
+        }
+        queue.clear();
+        for (Map.Entry<String, Long> entry : nextTransitions.entrySet()) {
+            queue.add(new Transition(entry.getValue(), entry.getKey()));
+        }
+    }
+
+    private void fire() {
+        scheduledTime = 0;
+        long now = System.currentTimeMillis();
+        List<String> due = new ArrayList<>();
+
+        while (!queue.isEmpty() && queue.peek().time <= now) {
+            Transition transition = queue.poll();
+            Long next = nextTransitions.get(transition.grantId);
+            if (next == null || next != transition.time) {
+                // Stale entry.
+                continue;
+            }
+
+            nextTransitions.remove(transition.grantId);
+            due.add(transition.grantId);
+            schedule(grantRepository.getById(transition.grantId), now);
+        }
+
+        if (!due.isEmpty()) {
+            listener.onValidityChanged(due);
+        }
+        updateTimer();
+    }
+
+    private void updateTimer() {
+        if (!started) {
+            return;
+        }
+
+        // Discard stale entries at the head of the queue, so the timer isn't set for them.
+        while (!queue.isEmpty()) {
+            Transition head = queue.peek();
+            Long next = nextTransitions.get(head.grantId);
+            if (next != null && next == head.time) {
+                break;
+            }
+            queue.poll();
+        }
+
+        if (queue.isEmpty()) {
+            handler.removeCallbacks(fire);
+            scheduledTime = 0;
+            return;
+        }
+
+        long time = queue.peek().time;
+        if (time == scheduledTime) {
+            return;
+        }
+
+        handler.removeCallbacks(fire);
+        handler.postDelayed(fire, Math.max(0, time - System.currentTimeMillis()));
+        scheduledTime = time;
+    }
+}
@@ -0,0 +1,105 @@
+package net.tpky.demoapp;
+
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static android.os.Looper.getMainLooper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class GrantBatchFetcherTest {
+
+    private final List<String[]> requestedChunks = new ArrayList<>();
+    private final List<PromiseSource<List<ApplicationGrantDto>>> requests = new ArrayList<>();
+    private final AtomicReference<List<ApplicationGrantDto>> result = new AtomicReference<>();
+    private final AtomicReference<Exception> exception = new AtomicReference<>();
+
+    @Test
+    public void fetch_mergesAllChunks() {
+        fetch(new String[]{"c", "a", "e", "b", "d"}, 2, 2);
+
+        assertEquals(2, requests.size());
+        complete(1);
+        complete(0);
+        assertEquals(3, requests.size());
+        complete(2);
+
+        assertNull(exception.get());
+        List<String> ids = new ArrayList<>();
+        for (ApplicationGrantDto grant : result.get()) {
+            ids.add(grant.getId());
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), ids);
+    }
+
+    @Test
+    public void fetch_failsIfAnyChunkFails() {
+        fetch(new String[]{"a", "b", "c", "d", "e"}, 2, 2);
+
+        complete(0);
+        complete(1);
+        requests.get(2).setException(new IOException("Chunk failed."));
+        idle();
+
+        assertNull(result.get());
+        assertTrue(exception.get() instanceof IOException);
+    }
+
+    @Test
+    public void fetch_stopsRequestingChunksAfterAFailure() {
+        fetch(new String[]{"a", "b", "c", "d", "e"}, 1, 2);
+
+        requests.get(0).setException(new IOException("Chunk failed."));
+        idle();
+        complete(1);
+
+        assertEquals(2, requests.size());
+        assertNull(result.get());
+        assertTrue(exception.get() instanceof IOException);
+    }
+
+    private void fetch(String[] grantIds, int chunkSize, int maxInFlight) {
+        GrantBatchFetcher
+                .fetch(grantIds, chunkSize, maxInFlight, chunk -> {
+                    PromiseSource<List<ApplicationGrantDto>> request = new PromiseSource<>();
+                    requestedChunks.add(chunk);
+                    requests.add(request);
+                    return request.getPromise();
+                })
+                .continueOnUi(grants -> {
+                    result.set(grants);
+                    return null;
+                })
+                .catchOnUi(e -> {
+                    exception.set(e);
+                    return null;
+                })
+                .conclude();
+        idle();
+    }
+
+    private void complete(int index) {
+        List<ApplicationGrantDto> grants = new ArrayList<>();
+        for (String grantId : requestedChunks.get(index)) {
+            grants.add(TestGrants.newGrant(grantId, "Active"));
+        }
+        requests.get(index).setResult(grants);
+        idle();
+    }
+
+    private static void idle() {
+        shadowOf(getMainLooper()).idle();
+    }
+}
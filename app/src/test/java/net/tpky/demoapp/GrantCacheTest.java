@@ -0,0 +1,147 @@
+package net.tpky.demoapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static net.tpky.demoapp.TestGrants.newGrant;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class GrantCacheTest {
+
+    private static final long MAX_AGE_MS = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<GrantCache> caches = new ArrayList<>();
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "grant_cache.json");
+    }
+
+    @After
+    public void tearDown() {
+        for (GrantCache cache : caches) {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void applyChanges_deltaKeepsUnchangedGrantsAndRemovesRevokedOnes() {
+        GrantCache cache = newCache("alice");
+        cache.applyChanges(newChanges("w1", Arrays.asList(
+                newGrant("grant-1", "Active"),
+                newGrant("grant-2", "Active"),
+                newGrant("grant-3", "Active"))), true);
+
+        cache.applyChanges(new GrantChanges(
+                "w2",
+                Collections.singletonList(newGrant("grant-2", "Suspended")),
+                Collections.singletonList("grant-3")), false);
+
+        assertEquals(Arrays.asList(newGrant("grant-1", "Active"), newGrant("grant-2", "Suspended")),
+                cache.get(new String[]{"grant-1", "grant-2", "grant-3"}));
+        assertEquals("w2", cache.getWatermark());
+    }
+
+    @Test
+    public void applyChanges_fullSyncDiscardsOtherGrantsAndValidators() {
+        GrantCache cache = newCache("alice");
+        String[] grantIds = {"grant-1", "grant-2"};
+        cache.update(grantIds, new GrantCache.Validator("\"etag\"", null), Arrays.asList(
+                newGrant("grant-1", "Active"),
+                newGrant("grant-2", "Active")));
+        assertNotNull(cache.getValidator(grantIds));
+
+        cache.applyChanges(newChanges("w1", Collections.singletonList(newGrant("grant-1", "Active"))), true);
+
+        assertEquals(Collections.singletonList(newGrant("grant-1", "Active")), cache.get(grantIds));
+        assertNull(cache.getValidator(grantIds));
+        assertEquals("w1", cache.getWatermark());
+    }
+
+    @Test
+    public void applyChanges_revokingAGrantDropsValidatorsCoveringIt() {
+        GrantCache cache = newCache("alice");
+        String[] grantIds = {"grant-1", "grant-2"};
+        cache.update(grantIds, new GrantCache.Validator("\"etag\"", null), Arrays.asList(
+                newGrant("grant-1", "Active"),
+                newGrant("grant-2", "Active")));
+
+        cache.applyChanges(new GrantChanges("w1", Collections.emptyList(), Collections.singletonList("grant-2")), false);
+
+        assertNull(cache.getValidator(grantIds));
+        assertEquals(Collections.singletonList(newGrant("grant-1", "Active")), cache.get(grantIds));
+    }
+
+    @Test
+    public void getWatermark_isNullBeforeTheFirstSynchronization() {
+        assertNull(newCache("alice").getWatermark());
+    }
+
+    @Test
+    public void watermark_isPersistedForTheSameUserOnly() throws InterruptedException {
+        GrantCache cache = newCache("alice");
+        cache.applyChanges(newChanges("w1", Collections.singletonList(newGrant("grant-1", "Active"))), true);
+        awaitSaved();
+
+        GrantCache sameUser = newCache("alice");
+        assertEquals("w1", sameUser.getWatermark());
+        assertEquals(Collections.singletonList(newGrant("grant-1", "Active")), sameUser.get(new String[]{"grant-1"}));
+
+        GrantCache otherUser = newCache("bob");
+        assertNull(otherUser.getWatermark());
+        assertTrue(otherUser.get(new String[]{"grant-1"}).isEmpty());
+
+        GrantCache noUser = newCache(null);
+        assertNull(noUser.getWatermark());
+    }
+
+    @Test
+    public void clear_forgetsTheWatermark() {
+        GrantCache cache = newCache("alice");
+        cache.applyChanges(newChanges("w1", Collections.singletonList(newGrant("grant-1", "Active"))), true);
+
+        cache.clear();
+
+        assertNull(cache.getWatermark());
+        assertTrue(cache.get(new String[]{"grant-1"}).isEmpty());
+    }
+
+    private GrantCache newCache(String username) {
+        GrantCache cache = new GrantCache(file, username, 100, MAX_AGE_MS);
+        caches.add(cache);
+        return cache;
+    }
+
+    /**
+     * Waits until the cache file has been written, which happens asynchronously.
+     */
+    private void awaitSaved() throws InterruptedException {
+        for (int i = 0; i < 500 && !file.exists(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(file.exists());
+    }
+
+    private static GrantChanges newChanges(String watermark, List<ApplicationGrantDto> changed) {
+        return new GrantChanges(watermark, changed, Collections.emptyList());
+    }
+}
@@ -0,0 +1,161 @@
+package net.tpky.demoapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class GrantJsonReaderTest {
+
+    private static final String GRANTS = "["
+            + "{"
+            + "\"id\":\"grant-1\","
+            + "\"physicalLockId\":\"lock-1\","
+            + "\"state\":\"Active\","
+            + "\"granteeFirstName\":\"Jane\","
+            + "\"granteeLastName\":\"Doe\","
+            + "\"issuer\":\"Sample Owner\","
+            + "\"lockTitle\":\"Front Door\","
+            + "\"lockLocation\":\"Vienna\","
+            + "\"timeRestrictionIcal\":\"DTSTART:20210101T080000Z\\nDURATION:PT8H\\nRRULE:FREQ=DAILY\","
+            + "\"validFrom\":\"2021-02-17T16:10:00.000+01:00\","
+            + "\"validBefore\":\"2022-02-17T15:10:00.000Z\","
+            + "\"unknown\":{\"nested\":[1,2,3]}"
+            + "},"
+            + "{"
+            + "\"id\":\"grant-2\","
+            + "\"physicalLockId\":\"lock-2\","
+            + "\"state\":\"Revoked\","
+            + "\"granteeFirstName\":null,"
+            + "\"timeRestrictionIcal\":null,"
+            + "\"validFrom\":null,"
+            + "\"validBefore\":null"
+            + "}"
+            + "]";
+
+    private final GrantJsonReader reader = new GrantJsonReader();
+
+    @Test
+    public void readGrants_decodesAllFields() throws IOException, ParseException {
+        List<ApplicationGrantDto> grants = reader.readGrants(toStream(GRANTS), StandardCharsets.UTF_8);
+
+        assertEquals(2, grants.size());
+
+        ApplicationGrantDto first = grants.get(0);
+        assertEquals("grant-1", first.getId());
+        assertEquals("lock-1", first.getPhysicalLockId());
+        assertEquals("Active", first.getState());
+        assertEquals("Jane", first.getGranteeFirstName());
+        assertEquals("Doe", first.getGranteeLastName());
+        assertEquals("Sample Owner", first.getIssuer());
+        assertEquals("Front Door", first.getLockTitle());
+        assertEquals("Vienna", first.getLockLocation());
+        assertEquals("DTSTART:20210101T080000Z\nDURATION:PT8H\nRRULE:FREQ=DAILY", first.getTimeRestrictionIcal());
+        assertEquals(new Date(1613574600000L), first.getValidFrom());
+        assertEquals(new Date(1645110600000L), first.getValidBefore());
+
+        ApplicationGrantDto second = grants.get(1);
+        assertEquals("grant-2", second.getId());
+        assertEquals("lock-2", second.getPhysicalLockId());
+        assertEquals("Revoked", second.getState());
+        assertNull(second.getGranteeFirstName());
+        assertNull(second.getGranteeLastName());
+        assertNull(second.getTimeRestrictionIcal());
+        assertNull(second.getValidFrom());
+        assertNull(second.getValidBefore());
+    }
+
+    @Test
+    public void readGrants_handsOffGrantsAsTheyAreDecoded() throws IOException, ParseException {
+        List<ApplicationGrantDto> consumed = new ArrayList<>();
+        reader.readGrants(toStream(GRANTS), StandardCharsets.UTF_8, consumed::add);
+
+        assertEquals(reader.readGrants(toStream(GRANTS), StandardCharsets.UTF_8), consumed);
+    }
+
+    @Test
+    public void readGrants_handsOffGrantsBeforeTheResponseEnds() throws ParseException {
+        // The response is cut off within the second grant.
+        String truncated = GRANTS.substring(0, GRANTS.indexOf("\"grant-2\""));
+
+        List<ApplicationGrantDto> consumed = new ArrayList<>();
+        try {
+            reader.readGrants(toStream(truncated), StandardCharsets.UTF_8, consumed::add);
+            fail("Decoded truncated response.");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        assertEquals(1, consumed.size());
+        assertEquals("grant-1", consumed.get(0).getId());
+    }
+
+    @Test
+    public void readGrants_decodesEmptyArray() throws IOException, ParseException {
+        assertEquals(Collections.emptyList(), reader.readGrants(toStream("[]"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void readGrants_rejectsGrantsWithoutRequiredFields() throws ParseException {
+        String[] payloads = {
+                "[{\"physicalLockId\":\"lock-1\",\"state\":\"Active\"}]",
+                "[{\"id\":\"grant-1\",\"state\":\"Active\"}]",
+                "[{\"id\":\"grant-1\",\"physicalLockId\":\"lock-1\",\"state\":null}]",
+        };
+
+        for (String payload : payloads) {
+            try {
+                reader.readGrants(toStream(payload), StandardCharsets.UTF_8);
+                fail("Decoded grant without required field: " + payload);
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test(expected = ParseException.class)
+    public void readGrants_rejectsMalformedTimestamps() throws IOException, ParseException {
+        reader.readGrants(toStream("[{\"id\":\"grant-1\",\"physicalLockId\":\"lock-1\",\"state\":\"Active\","
+                + "\"validFrom\":\"2021-02-17 16:10:00\"}]"), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void readChanges_decodesWatermarkChangedAndRevokedGrants() throws IOException, ParseException {
+        String payload = "{"
+                + "\"changed\":" + GRANTS + ","
+                + "\"revoked\":[\"grant-3\",\"grant-4\"],"
+                + "\"unknown\":true,"
+                + "\"watermark\":\"w-42\""
+                + "}";
+
+        GrantChanges changes = reader.readChanges(toStream(payload), StandardCharsets.UTF_8);
+
+        assertEquals("w-42", changes.getWatermark());
+        assertEquals(reader.readGrants(toStream(GRANTS), StandardCharsets.UTF_8), changes.getChanged());
+        assertEquals(Arrays.asList("grant-3", "grant-4"), changes.getRevoked());
+    }
+
+    @Test(expected = IOException.class)
+    public void readChanges_rejectsMissingWatermark() throws IOException, ParseException {
+        reader.readChanges(toStream("{\"changed\":[],\"revoked\":[]}"), StandardCharsets.UTF_8);
+    }
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,192 @@
+package net.tpky.demoapp;
+
+import com.tapkey.mobile.utils.Tuple;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static net.tpky.demoapp.TestGrants.newGrant;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GrantRepositoryTest {
+
+    private static class RecordingListener implements GrantRepository.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onGrantPut(ApplicationGrantDto grant, ApplicationGrantDto previous) {
+            events.add("put " + grant.getId() + " " + grant.getState()
+                    + (previous != null ? " replacing " + previous.getState() : ""));
+        }
+
+        @Override
+        public void onGrantRemoved(ApplicationGrantDto grant) {
+            events.add("removed " + grant.getId());
+        }
+    }
+
+    private final GrantRepository repository = new GrantRepository();
+    private final RecordingListener listener = new RecordingListener();
+
+    @Before
+    public void setUp() {
+        repository.addListener(listener);
+    }
+
+    @Test
+    public void join_pairsItemsWithTheirGrantsInItemOrder() {
+        ApplicationGrantDto grant1 = newGrant("grant-1", "Active");
+        ApplicationGrantDto grant2 = newGrant("grant-2", "Active");
+        repository.setAll(Arrays.asList(grant1, grant2));
+
+        List<Tuple<String, ApplicationGrantDto>> joined = repository.join(
+                Arrays.asList("key-2", "key-3", "key-1", "key-2b"),
+                key -> "grant-" + key.substring(4, 5));
+
+        assertEquals(3, joined.size());
+        assertEquals("key-2", joined.get(0).getValue1());
+        assertSame(grant2, joined.get(0).getValue2());
+        assertEquals("key-1", joined.get(1).getValue1());
+        assertSame(grant1, joined.get(1).getValue2());
+        assertEquals("key-2b", joined.get(2).getValue1());
+        assertSame(grant2, joined.get(2).getValue2());
+    }
+
+    @Test
+    public void join_omitsItemsWithoutGrants() {
+        List<Tuple<String, ApplicationGrantDto>> joined = repository.join(
+                Collections.singletonList("grant-1"), Function.identity());
+
+        assertTrue(joined.isEmpty());
+    }
+
+    @Test
+    public void getByPhysicalLockId_followsChanges() {
+        ApplicationGrantDto grant1 = newGrant("grant-1", "Active");
+        ApplicationGrantDto grant2 = newGrant("grant-2", "Active");
+        grant2.setPhysicalLockId(grant1.getPhysicalLockId());
+        ApplicationGrantDto grant3 = newGrant("grant-3", "Active");
+        repository.setAll(Arrays.asList(grant1, grant2, grant3));
+
+        assertEquals(Arrays.asList(grant1, grant2), repository.getByPhysicalLockId("lock-grant-1"));
+
+        // Moving a grant to another lock updates both locks.
+        ApplicationGrantDto moved = newGrant("grant-2", "Active");
+        moved.setPhysicalLockId("lock-grant-3");
+        repository.setAll(Arrays.asList(grant1, moved, grant3));
+
+        assertEquals(Collections.singletonList(grant1), repository.getByPhysicalLockId("lock-grant-1"));
+        assertEquals(Arrays.asList(grant3, moved), repository.getByPhysicalLockId("lock-grant-3"));
+
+        repository.remove("grant-1");
+
+        assertTrue(repository.getByPhysicalLockId("lock-grant-1").isEmpty());
+        assertTrue(repository.getByPhysicalLockId("lock-unknown").isEmpty());
+    }
+
+    /**
+     * Compares joining 10,000 keys through the repository with scanning all grants for every key,
+     * as the key list did before. Prints the durations.
+     */
+    @Test
+    public void join_benchmarkAt10000Keys() {
+        int count = 10000;
+        List<ApplicationGrantDto> grants = new ArrayList<>(count);
+        List<String> keyGrantIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            grants.add(newGrant("grant-" + i, "Active"));
+            keyGrantIds.add("grant-" + (count - 1 - i));
+        }
+
+        long start = System.nanoTime();
+        repository.setAll(grants);
+        long indexNs = System.nanoTime() - start;
+
+        // Warm up, then take the best of a few runs.
+        long joinNs = Long.MAX_VALUE;
+        List<Tuple<String, ApplicationGrantDto>> joined = null;
+        for (int i = 0; i < 20; i++) {
+            start = System.nanoTime();
+            joined = repository.join(keyGrantIds, Function.identity());
+            joinNs = Math.min(joinNs, System.nanoTime() - start);
+        }
+
+        start = System.nanoTime();
+        List<Tuple<String, ApplicationGrantDto>> scanned = keyGrantIds.stream()
+                .map(grantId -> new Tuple<>(grantId, grants.stream()
+                        .filter(grant -> grant.getId().equals(grantId))
+                        .findFirst()
+                        .orElse(null)))
+                .filter(x -> x.getValue2() != null)
+                .collect(Collectors.toList());
+        long scanNs = System.nanoTime() - start;
+
+        System.out.println(String.format("Join of %d keys: indexing %.1f ms, indexed join %.2f ms, scanning join %.1f ms",
+                count, indexNs / 1e6, joinNs / 1e6, scanNs / 1e6));
+
+        assertEquals(count, joined.size());
+        assertEquals(scanned.size(), joined.size());
+        for (int i = 0; i < count; i++) {
+            assertSame(scanned.get(i).getValue2(), joined.get(i).getValue2());
+        }
+        assertTrue(joinNs < scanNs);
+    }
+
+    @Test
+    public void setAll_reportsOnlyChangedGrants() {
+        repository.setAll(Arrays.asList(
+                newGrant("grant-1", "Active"),
+                newGrant("grant-2", "Active"),
+                newGrant("grant-3", "Active")));
+        listener.events.clear();
+
+        repository.setAll(Arrays.asList(
+                newGrant("grant-1", "Active"),
+                newGrant("grant-2", "Revoked"),
+                newGrant("grant-4", "Active")));
+
+        assertEquals(Arrays.asList(
+                "put grant-2 Revoked replacing Active",
+                "put grant-4 Active",
+                "removed grant-3"), listener.events);
+        assertEquals("Revoked", repository.getById("grant-2").getState());
+        assertNull(repository.getById("grant-3"));
+    }
+
+    @Test
+    public void addListener_replaysExistingGrants() {
+        repository.put(newGrant("grant-1", "Active"));
+
+        RecordingListener late = new RecordingListener();
+        repository.addListener(late);
+
+        assertEquals(Collections.singletonList("put grant-1 Active"), late.events);
+    }
+
+    @Test
+    public void removeListener_stopsNotifications() {
+        repository.removeListener(listener);
+
+        repository.put(newGrant("grant-1", "Active"));
+        repository.remove("grant-1");
+
+        assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    public void remove_ignoresUnknownGrants() {
+        repository.remove("grant-1");
+
+        assertTrue(listener.events.isEmpty());
+    }
+}
@@ -0,0 +1,80 @@
+package net.tpky.demoapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class GrantValidityTest {
+
+    private static final String WORKING_HOURS = "DTSTART:20210301T080000Z\nDURATION:PT8H\nRRULE:FREQ=DAILY";
+
+    private final GrantValidity validity = new GrantValidity();
+
+    @Test
+    public void isValidAt_honorsValidityPeriod() {
+        ApplicationGrantDto grant = newGrant(null, "2021-03-01T00:00:00Z", "2021-04-01T00:00:00Z");
+
+        assertFalse(validity.isValidAt(grant, utc("2021-02-28T23:59:59.999Z")));
+        assertTrue(validity.isValidAt(grant, utc("2021-03-01T00:00:00Z")));
+        assertTrue(validity.isValidAt(grant, utc("2021-03-31T23:59:59.999Z")));
+        assertFalse(validity.isValidAt(grant, utc("2021-04-01T00:00:00Z")));
+    }
+
+    @Test
+    public void isValidAt_honorsTimeRestriction() {
+        ApplicationGrantDto grant = newGrant(WORKING_HOURS, "2021-03-01T00:00:00Z", "2021-04-01T00:00:00Z");
+
+        assertTrue(validity.isValidAt(grant, utc("2021-03-10T12:00:00Z")));
+        assertFalse(validity.isValidAt(grant, utc("2021-03-10T20:00:00Z")));
+
+        // Outside the validity period, the restriction doesn't matter.
+        assertFalse(validity.isValidAt(grant, utc("2021-04-10T12:00:00Z")));
+    }
+
+    @Test
+    public void isValidAt_treatsUnsupportedRestrictionsAsUnrestricted() {
+        ApplicationGrantDto grant = newGrant("DTSTART:20210301T080000Z\nDURATION:PT8H\nRRULE:FREQ=MONTHLY", null, null);
+
+        assertTrue(validity.isValidAt(grant, utc("2021-03-10T20:00:00Z")));
+        assertEquals(Long.MAX_VALUE, validity.getNextTransition(grant, utc("2021-03-10T20:00:00Z")));
+    }
+
+    @Test
+    public void getNextTransition_returnsTheEarliestChange() {
+        ApplicationGrantDto grant = newGrant(WORKING_HOURS, "2021-03-05T10:00:00Z", "2021-03-07T12:00:00Z");
+
+        // Before the validity period, it starts in the middle of an occurrence.
+        assertEquals(utc("2021-03-05T10:00:00Z"), validity.getNextTransition(grant, utc("2021-03-01T12:00:00Z")));
+        assertEquals(utc("2021-03-05T16:00:00Z"), validity.getNextTransition(grant, utc("2021-03-05T10:00:00Z")));
+        assertEquals(utc("2021-03-06T08:00:00Z"), validity.getNextTransition(grant, utc("2021-03-05T16:00:00Z")));
+
+        // The validity period ends before the occurrence does.
+        assertEquals(utc("2021-03-07T12:00:00Z"), validity.getNextTransition(grant, utc("2021-03-07T09:00:00Z")));
+        assertEquals(Long.MAX_VALUE, validity.getNextTransition(grant, utc("2021-03-07T12:00:00Z")));
+    }
+
+    @Test
+    public void getNextTransition_withoutRestrictionOrPeriodIsNever() {
+        assertEquals(Long.MAX_VALUE, validity.getNextTransition(newGrant(null, null, null), utc("2021-03-01T00:00:00Z")));
+    }
+
+    private static ApplicationGrantDto newGrant(String ical, String validFrom, String validBefore) {
+        ApplicationGrantDto grant = TestGrants.newGrant("grant-1", "Active");
+        grant.setTimeRestrictionIcal(ical);
+        grant.setValidFrom(validFrom != null ? new Date(utc(validFrom)) : null);
+        grant.setValidBefore(validBefore != null ? new Date(utc(validBefore)) : null);
+        return grant;
+    }
+
+    private static long utc(String instant) {
+        return Instant.parse(instant).toEpochMilli();
+    }
+}
@@ -0,0 +1,257 @@
+package net.tpky.demoapp;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IcalScheduleTest {
+
+    private static final ZoneId VIENNA = ZoneId.of("Europe/Vienna");
+
+    @Test
+    public void singleEvent_isActiveBetweenStartAndEnd() throws ParseException {
+        IcalSchedule schedule = IcalSchedule.parse(""
+                + "BEGIN:VCALENDAR\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "DTSTART:20210301T080000Z\r\n"
+                + "DTEND:20210301T160000Z\r\n"
+                + "END:VEVENT\r\n"
+                + "END:VCALENDAR\r\n");
+
+        assertFalse(schedule.isActiveAt(utc("2021-03-01T07:59:59.999Z")));
+        assertTrue(schedule.isActiveAt(utc("2021-03-01T08:00:00Z")));
+        assertTrue(schedule.isActiveAt(utc("2021-03-01T15:59:59.999Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-03-01T16:00:00Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-03-02T08:00:00Z")));
+
+        assertEquals(utc("2021-03-01T08:00:00Z"), schedule.getNextTransition(utc("2021-02-01T00:00:00Z")));
+        assertEquals(utc("2021-03-01T16:00:00Z"), schedule.getNextTransition(utc("2021-03-01T08:00:00Z")));
+        assertEquals(Long.MAX_VALUE, schedule.getNextTransition(utc("2021-03-01T16:00:00Z")));
+    }
+
+    @Test
+    public void duration_definesTheEndOfEachOccurrence() throws ParseException {
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART;TZID=Europe/Vienna:20210301T220000\nDURATION:PT4H\nRRULE:FREQ=DAILY");
+
+        // Occurrences spanning midnight cover the early hours of the next day.
+        assertTrue(schedule.isActiveAt(vienna("2021-03-02T01:00")));
+        assertFalse(schedule.isActiveAt(vienna("2021-03-02T02:00")));
+        assertEquals(vienna("2021-03-02T02:00"), schedule.getNextTransition(vienna("2021-03-02T01:00")));
+        assertEquals(vienna("2021-03-02T22:00"), schedule.getNextTransition(vienna("2021-03-02T02:00")));
+    }
+
+    @Test
+    public void dailyRule_honorsInterval() throws ParseException {
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART:20210301T080000Z\nDURATION:PT8H\nRRULE:FREQ=DAILY;INTERVAL=2");
+
+        assertTrue(schedule.isActiveAt(utc("2021-03-03T12:00:00Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-03-04T12:00:00Z")));
+        assertEquals(utc("2021-03-05T08:00:00Z"), schedule.getNextTransition(utc("2021-03-03T16:00:00Z")));
+    }
+
+    @Test
+    public void weeklyRule_isActiveOnTheGivenDaysOnly() throws ParseException {
+        // 2021-03-01 is a Monday.
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART;TZID=Europe/Vienna:20210301T080000\nDTEND;TZID=Europe/Vienna:20210301T160000\nRRULE:FREQ=WEEKLY;BYDAY=MO,WE,FR");
+
+        assertTrue(schedule.isActiveAt(vienna("2021-03-03T12:00")));
+        assertFalse(schedule.isActiveAt(vienna("2021-03-04T12:00")));
+        assertTrue(schedule.isActiveAt(vienna("2021-03-05T12:00")));
+        assertFalse(schedule.isActiveAt(vienna("2021-03-06T12:00")));
+
+        // From Friday evening, the next occurrence starts on Monday.
+        assertEquals(vienna("2021-03-08T08:00"), schedule.getNextTransition(vienna("2021-03-05T16:00")));
+    }
+
+    @Test
+    public void weeklyRule_withoutDaysRecursOnTheStartDay() throws ParseException {
+        // 2021-03-03 is a Wednesday.
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART:20210303T080000Z\nDURATION:PT1H\nRRULE:FREQ=WEEKLY;INTERVAL=2");
+
+        assertTrue(schedule.isActiveAt(utc("2021-03-17T08:30:00Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-03-10T08:30:00Z")));
+        assertEquals(utc("2021-03-17T08:00:00Z"), schedule.getNextTransition(utc("2021-03-03T09:00:00Z")));
+    }
+
+    @Test
+    public void weeklyRule_countsWeeksFromMonday() throws ParseException {
+        // Starts on a Sunday, so the Monday after is in the next week, which INTERVAL=2 skips.
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART:20210307T080000Z\nDURATION:PT1H\nRRULE:FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,SU;WKST=MO");
+
+        assertTrue(schedule.isActiveAt(utc("2021-03-07T08:30:00Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-03-08T08:30:00Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-03-14T08:30:00Z")));
+        assertTrue(schedule.isActiveAt(utc("2021-03-15T08:30:00Z")));
+        assertTrue(schedule.isActiveAt(utc("2021-03-21T08:30:00Z")));
+    }
+
+    @Test
+    public void untilDate_includesOccurrencesOnThatDay() throws ParseException {
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART;TZID=Europe/Vienna:20210301T080000\nDURATION:PT8H\nRRULE:FREQ=DAILY;UNTIL=20210305");
+
+        assertTrue(schedule.isActiveAt(vienna("2021-03-05T12:00")));
+        assertFalse(schedule.isActiveAt(vienna("2021-03-06T12:00")));
+        assertEquals(Long.MAX_VALUE, schedule.getNextTransition(vienna("2021-03-05T16:00")));
+    }
+
+    @Test
+    public void untilDateTime_excludesOccurrencesStartingAfterIt() throws ParseException {
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART:20210301T080000Z\nDURATION:PT8H\nRRULE:FREQ=DAILY;UNTIL=20210305T075959Z");
+
+        assertTrue(schedule.isActiveAt(utc("2021-03-04T12:00:00Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-03-05T12:00:00Z")));
+        assertEquals(Long.MAX_VALUE, schedule.getNextTransition(utc("2021-03-04T16:00:00Z")));
+    }
+
+    @Test
+    public void dailyRule_keepsLocalTimeAcrossDaylightSavingTransitions() throws ParseException {
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART;TZID=Europe/Vienna:20210320T080000\nDTEND;TZID=Europe/Vienna:20210320T160000\nRRULE:FREQ=DAILY");
+
+        // Clocks go forward on 2021-03-28, so 08:00 moves from 07:00 UTC to 06:00 UTC.
+        assertTrue(schedule.isActiveAt(utc("2021-03-27T07:30:00Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-03-27T06:30:00Z")));
+        assertTrue(schedule.isActiveAt(utc("2021-03-28T06:30:00Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-03-28T14:30:00Z")));
+        assertEquals(utc("2021-03-28T06:00:00Z"), schedule.getNextTransition(utc("2021-03-27T15:00:00Z")));
+
+        // Clocks go back on 2021-10-31, so 08:00 moves from 06:00 UTC to 07:00 UTC.
+        assertTrue(schedule.isActiveAt(utc("2021-10-30T06:30:00Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-10-31T06:30:00Z")));
+        assertTrue(schedule.isActiveAt(utc("2021-10-31T07:30:00Z")));
+        assertEquals(utc("2021-10-31T07:00:00Z"), schedule.getNextTransition(utc("2021-10-30T14:00:00Z")));
+    }
+
+    @Test
+    public void occurrenceStartingInTheSkippedHour_startsAfterTheGap() throws ParseException {
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART;TZID=Europe/Vienna:20210327T023000\nDURATION:PT1H\nRRULE:FREQ=DAILY");
+
+        // 02:30 doesn't exist on 2021-03-28, the occurrence starts at 03:30 CEST instead.
+        assertEquals(utc("2021-03-28T01:30:00Z"), schedule.getNextTransition(utc("2021-03-27T12:00:00Z")));
+        assertTrue(schedule.isActiveAt(utc("2021-03-28T02:00:00Z")));
+    }
+
+    @Test
+    public void backToBackOccurrences_areMergedIntoOneTransition() throws ParseException {
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART;TZID=Europe/Vienna;VALUE=DATE:20210301\nRRULE:FREQ=DAILY;UNTIL=20210310");
+
+        // A date without end lasts the whole day, so the days chain up until UNTIL.
+        assertTrue(schedule.isActiveAt(vienna("2021-03-05T23:59")));
+        assertEquals(vienna("2021-03-11T00:00"), schedule.getNextTransition(vienna("2021-03-03T12:00")));
+        assertEquals(Long.MAX_VALUE, schedule.getNextTransition(vienna("2021-03-11T00:00")));
+    }
+
+    @Test
+    public void foldedLines_areUnfolded() throws ParseException {
+        IcalSchedule schedule = IcalSchedule.parse("DTSTART:20210301T080000Z\r\nRRULE:FREQ=DAILY;\r\n BYDAY=MO\r\nDURATION:PT1H\r\n");
+
+        assertTrue(schedule.isActiveAt(utc("2021-03-08T08:30:00Z")));
+        assertFalse(schedule.isActiveAt(utc("2021-03-09T08:30:00Z")));
+    }
+
+    @Test
+    public void timeZoneDefinitions_areIgnored() throws ParseException {
+        String timeZone = ""
+                + "BEGIN:VTIMEZONE\r\n"
+                + "TZID:Europe/Vienna\r\n"
+                + "BEGIN:DAYLIGHT\r\n"
+                + "TZOFFSETFROM:+0100\r\n"
+                + "TZOFFSETTO:+0200\r\n"
+                + "TZNAME:CEST\r\n"
+                + "DTSTART:19700329T020000\r\n"
+                + "RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=-1SU\r\n"
+                + "END:DAYLIGHT\r\n"
+                + "BEGIN:STANDARD\r\n"
+                + "TZOFFSETFROM:+0200\r\n"
+                + "TZOFFSETTO:+0100\r\n"
+                + "TZNAME:CET\r\n"
+                + "DTSTART:19701025T030000\r\n"
+                + "RRULE:FREQ=YEARLY;BYMONTH=10;BYDAY=-1SU\r\n"
+                + "END:STANDARD\r\n"
+                + "END:VTIMEZONE\r\n";
+        String event = ""
+                + "BEGIN:VEVENT\r\n"
+                + "DTSTART;TZID=Europe/Vienna:20210301T080000\r\n"
+                + "DTEND;TZID=Europe/Vienna:20210301T160000\r\n"
+                + "RRULE:FREQ=WEEKLY;BYDAY=MO,WE\r\n"
+                + "BEGIN:VALARM\r\n"
+                + "ACTION:DISPLAY\r\n"
+                + "TRIGGER:-PT15M\r\n"
+                + "DURATION:PT5M\r\n"
+                + "REPEAT:2\r\n"
+                + "END:VALARM\r\n"
+                + "END:VEVENT\r\n";
+
+        // The time zone definition may come before or after the event.
+        String[] icals = {
+                "BEGIN:VCALENDAR\r\nVERSION:2.0\r\n" + timeZone + event + "END:VCALENDAR\r\n",
+                "BEGIN:VCALENDAR\r\nVERSION:2.0\r\n" + event + timeZone + "END:VCALENDAR\r\n",
+        };
+
+        for (String ical : icals) {
+            IcalSchedule schedule = IcalSchedule.parse(ical);
+
+            assertFalse(schedule.isActiveAt(vienna("2021-03-01T07:59")));
+            assertTrue(schedule.isActiveAt(vienna("2021-03-01T15:59")));
+            assertFalse(schedule.isActiveAt(vienna("2021-03-01T16:00")));
+            assertFalse(schedule.isActiveAt(vienna("2021-03-02T12:00")));
+            assertTrue(schedule.isActiveAt(vienna("2021-03-03T12:00")));
+            assertTrue(schedule.isActiveAt(vienna("2021-04-05T12:00")));
+        }
+    }
+
+    @Test
+    public void dateTimeWithoutEnd_isRejected() {
+        try {
+            IcalSchedule.parse("DTSTART:20210301T080000Z\nRRULE:FREQ=DAILY");
+            fail("Parsed restriction granting access at no time.");
+        } catch (ParseException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void parse_rejectsUnsupportedRestrictions() {
+        String[] icals = {
+                "DTEND:20210301T160000Z",
+                "DTSTART:20210301T080000Z\nDURATION:PT1H\nRRULE:FREQ=MONTHLY",
+                "DTSTART:20210301T080000Z\nDURATION:PT1H\nRRULE:FREQ=WEEKLY;BYDAY=1MO",
+                "DTSTART:20210301T080000Z\nDURATION:PT1H\nRRULE:FREQ=DAILY;COUNT=3",
+                "DTSTART:20210301T080000Z\nDURATION:PT1H\nRRULE:FREQ=DAILY;INTERVAL=0",
+                "DTSTART:20210301T080000Z\nDURATION:PT1H\nRRULE:FREQ=WEEKLY;WKST=SU",
+                "DTSTART:20210301T080000Z\nDURATION:PT1H\nRRULE:INTERVAL=2",
+                "DTSTART:20210301T080000Z\nDURATION:PT1H\nRRULE:FREQ=DAILY\nRRULE:FREQ=WEEKLY",
+                "DTSTART:20210301T080000Z\nDURATION:PT1H\nRRULE:FREQ=DAILY\nEXDATE:20210302T080000Z",
+                "BEGIN:VEVENT\nDTSTART:20210301T080000Z\nDURATION:PT1H\nEND:VEVENT\nBEGIN:VEVENT\nEND:VEVENT",
+                "BEGIN:VEVENT\nDTSTART:20210301T080000Z\nDURATION:PT1H\nEND:VCALENDAR",
+                "BEGIN:VEVENT\nDTSTART:20210301T080000Z\nDURATION:PT1H",
+                "DTSTART;TZID=Mars/Olympus:20210301T080000\nDURATION:PT1H",
+                "DTSTART:2021-03-01T08:00:00Z",
+                "DTSTART:20210301T080000Z\nDURATION:8 hours",
+        };
+
+        for (String ical : icals) {
+            try {
+                IcalSchedule.parse(ical);
+                fail("Parsed unsupported restriction: " + ical);
+            } catch (ParseException e) {
+                // Expected.
+            }
+        }
+    }
+
+    private static long utc(String instant) {
+        return Instant.parse(instant).toEpochMilli();
+    }
+
+    private static long vienna(String localDateTime) {
+        return LocalDateTime.parse(localDateTime).atZone(VIENNA).toInstant().toEpochMilli();
+    }
+}
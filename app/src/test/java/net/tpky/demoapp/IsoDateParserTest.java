@@ -0,0 +1,175 @@
+package net.tpky.demoapp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IsoDateParserTest {
+
+    private static final String PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+
+    private static final String[] ZONES = {
+            "UTC", "GMT+01:00", "GMT-08:00", "GMT+05:30", "GMT+14:00", "GMT-00:30"
+    };
+
+    @Test
+    public void parse_matchesSimpleDateFormat() throws ParseException {
+        String[] inputs = {
+                "2021-02-17T16:10:00.000+01:00",
+                "2021-02-17T15:10:00.000Z",
+                "1970-01-01T00:00:00.000Z",
+                "1969-12-31T23:59:59.999Z",
+                "2000-02-29T12:00:00.500-05:00",
+                "2100-03-01T00:00:00.000+05:30",
+                "2038-01-19T03:14:08.001Z",
+        };
+
+        for (String input : inputs) {
+            assertEquals(input, newSimpleDateFormat().parse(input).getTime(), IsoDateParser.parse(input));
+        }
+    }
+
+    @Test
+    public void parse_matchesSimpleDateFormatForRandomTimestamps() throws ParseException {
+        Random random = new Random(42);
+        SimpleDateFormat parser = newSimpleDateFormat();
+
+        for (int i = 0; i < 10000; i++) {
+            // Between 1900 and 2200.
+            long time = -2208988800000L + (long) (random.nextDouble() * 9467280000000L);
+            SimpleDateFormat formatter = newSimpleDateFormat();
+            formatter.setTimeZone(TimeZone.getTimeZone(ZONES[random.nextInt(ZONES.length)]));
+            String input = formatter.format(time);
+
+            assertEquals(input, time, IsoDateParser.parse(input));
+            assertEquals(input, parser.parse(input).getTime(), IsoDateParser.parse(input));
+        }
+    }
+
+    @Test
+    public void parse_acceptsOffsetsWithoutColonOrMinutes() throws ParseException {
+        long expected = IsoDateParser.parse("2021-02-17T16:10:00.000+01:00");
+
+        assertEquals(expected, IsoDateParser.parse("2021-02-17T16:10:00.000+0100"));
+        assertEquals(expected, IsoDateParser.parse("2021-02-17T16:10:00.000+01"));
+        assertEquals(expected, IsoDateParser.parse("2021-02-17T14:40:00.000-00:30"));
+    }
+
+    @Test
+    public void parse_acceptsFractionsOfAnyPrecision() throws ParseException {
+        long seconds = IsoDateParser.parse("2021-02-17T15:10:00Z");
+
+        assertEquals(seconds, IsoDateParser.parse("2021-02-17T15:10:00.000Z"));
+        assertEquals(seconds + 500, IsoDateParser.parse("2021-02-17T15:10:00.5Z"));
+        assertEquals(seconds + 120, IsoDateParser.parse("2021-02-17T15:10:00.12Z"));
+        assertEquals(seconds + 123, IsoDateParser.parse("2021-02-17T15:10:00.123456Z"));
+        assertEquals(seconds + 999, IsoDateParser.parse("2021-02-17T15:10:00.999999999Z"));
+    }
+
+    @Test
+    public void parse_rejectsMalformedTimestamps() {
+        String[] inputs = {
+                "",
+                "2021-02-17",
+                "2021-02-17T15:10:00.000",
+                "2021-02-17 15:10:00.000Z",
+                "2021-02-17T15:10:00.Z",
+                "2021-02-17T15:10:00.1234567890Z",
+                "2021-02-17T15:10:00.000Zulu",
+                "2021-02-17T15:10:00.000+1:00",
+                "2021-02-17T15:10:00.000+01:0",
+                "2021-02-17T15:10:00.000+19:00",
+                "2021-13-17T15:10:00.000Z",
+                "2021-02-29T15:10:00.000Z",
+                "2021-04-31T15:10:00.000Z",
+                "2021-02-17T24:00:00.000Z",
+                "2021-02-17T15:60:00.000Z",
+                "2021-02-17T15:10:60.000Z",
+                "2O21-02-17T15:10:00.000Z",
+        };
+
+        for (String input : inputs) {
+            try {
+                IsoDateParser.parse(input);
+                fail("Parsed malformed timestamp \"" + input + "\".");
+            } catch (ParseException e) {
+                // Expected.
+            }
+        }
+    }
+
+    /**
+     * Compares parsing with the shared SimpleDateFormat the grant decoding used before. Prints the
+     * time and, where the JVM can measure it, the memory allocated per timestamp.
+     */
+    @Test
+    public void parse_benchmarkAgainstSimpleDateFormat() throws ParseException {
+        String[] inputs = new String[1000];
+        Random random = new Random(42);
+        for (int i = 0; i < inputs.length; i++) {
+            SimpleDateFormat formatter = newSimpleDateFormat();
+            formatter.setTimeZone(TimeZone.getTimeZone(ZONES[random.nextInt(ZONES.length)]));
+            inputs[i] = formatter.format(1600000000000L + random.nextInt(Integer.MAX_VALUE) * 100L);
+        }
+        SimpleDateFormat simpleDateFormat = newSimpleDateFormat();
+
+        // Warm up, then take the best of a few runs.
+        long parserNs = Long.MAX_VALUE;
+        long simpleDateFormatNs = Long.MAX_VALUE;
+        long parserBytes = Long.MAX_VALUE;
+        long simpleDateFormatBytes = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int run = 0; run < 20; run++) {
+            long bytes = getAllocatedBytes();
+            long start = System.nanoTime();
+            for (String input : inputs) {
+                checksum += IsoDateParser.parse(input);
+            }
+            parserNs = Math.min(parserNs, System.nanoTime() - start);
+            parserBytes = Math.min(parserBytes, getAllocatedBytes() - bytes);
+
+            bytes = getAllocatedBytes();
+            start = System.nanoTime();
+            for (String input : inputs) {
+                checksum -= simpleDateFormat.parse(input).getTime();
+            }
+            simpleDateFormatNs = Math.min(simpleDateFormatNs, System.nanoTime() - start);
+            simpleDateFormatBytes = Math.min(simpleDateFormatBytes, getAllocatedBytes() - bytes);
+        }
+
+        System.out.println(String.format(Locale.US, "Parsing %d timestamps: IsoDateParser %.0f ns and %d bytes each, SimpleDateFormat %.0f ns and %d bytes each",
+                inputs.length,
+                (double) parserNs / inputs.length, parserBytes / inputs.length,
+                (double) simpleDateFormatNs / inputs.length, simpleDateFormatBytes / inputs.length));
+
+        assertEquals(0, checksum);
+        assertTrue(parserNs < simpleDateFormatNs);
+        assertTrue(parserBytes <= simpleDateFormatBytes);
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, or 0 if the JVM can't
+     * tell.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static SimpleDateFormat newSimpleDateFormat() {
+        return new SimpleDateFormat(PATTERN, Locale.US);
+    }
+}
@@ -0,0 +1,221 @@
+package net.tpky.demoapp;
+
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.tapkey.mobile.concurrent.CancellationToken;
+import com.tapkey.mobile.concurrent.Promise;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLog;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static android.os.Looper.getMainLooper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class KeyItemAdapterTest {
+
+    private static final int KEY_COUNT = 1000;
+
+    private static final long FRAME_BUDGET_NS = 1000000000L / 60;
+
+    /**
+     * Counts the view holders created and the rows bound.
+     */
+    private static class CountingKeyItemAdapter extends KeyItemAdapter {
+        int created;
+        final Set<Integer> boundPositions = new HashSet<>();
+        int binds;
+
+        CountingKeyItemAdapter(Context context, KeyItemAdapterHandler handler) {
+            super(context, handler);
+        }
+
+        @NonNull
+        @Override
+        public KeyItemViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            created++;
+            return super.onCreateViewHolder(parent, viewType);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull KeyItemViewHolder holder, int position) {
+            binds++;
+            boundPositions.add(position);
+            super.onBindViewHolder(holder, position);
+        }
+    }
+
+    private static final KeyItemAdapter.KeyItemAdapterHandler HANDLER = new KeyItemAdapter.KeyItemAdapterHandler() {
+
+        @Override
+        public boolean isLockNearby(String physicalLockId) {
+            return physicalLockId.hashCode() % 2 == 0;
+        }
+
+        @Override
+        public boolean isKeyUsable(String grantId) {
+            return true;
+        }
+
+        @Override
+        public TriggerTrace startTriggerTrace(String physicalLockId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Promise<Boolean> triggerLock(String physicalLockId, TriggerTrace trace, CancellationToken ct) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = new ContextThemeWrapper(RuntimeEnvironment.getApplication(), R.style.Theme_Tapkey);
+        ShadowLog.clear();
+    }
+
+    /**
+     * Scroll-jank harness: scrolls through a synthetic list of 1,000 keys, one step per frame, and
+     * prints how long the steps took, how many exceeded the frame budget, and how much memory was
+     * allocated per bound row. The frame times measured here are those of the JVM, not of a
+     * device, so they are only meaningful relative to each other, e.g. before and after a change
+     * to the bind path. The FrameTimeMonitor used in debug builds is attached, too.
+     */
+    @Test
+    public void scrolling1000Keys_benchmark() {
+        CountingKeyItemAdapter adapter = new CountingKeyItemAdapter(context, HANDLER);
+        RecyclerView recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(new LinearLayoutManager(context));
+        recyclerView.setAdapter(adapter);
+        FrameTimeMonitor monitor = new FrameTimeMonitor("KeyItemAdapterTest");
+        recyclerView.addOnScrollListener(monitor);
+
+        adapter.submitList(newRows(KEY_COUNT));
+        layout(recyclerView);
+        int step = Math.max(1, recyclerView.getChildAt(0).getHeight());
+
+        // Warm up the bind path, then scroll back.
+        scrollThrough(recyclerView, step, 100);
+        recyclerView.scrollToPosition(0);
+        layout(recyclerView);
+        adapter.boundPositions.clear();
+        adapter.binds = 0;
+
+        monitor.onScrollStateChanged(recyclerView, RecyclerView.SCROLL_STATE_DRAGGING);
+        long bytes = getAllocatedBytes();
+        List<Long> stepNs = scrollThrough(recyclerView, step, Integer.MAX_VALUE);
+        long allocatedBytes = getAllocatedBytes() - bytes;
+        monitor.onScrollStateChanged(recyclerView, RecyclerView.SCROLL_STATE_IDLE);
+
+        long totalNs = 0;
+        long maxNs = 0;
+        int overBudget = 0;
+        for (long ns : stepNs) {
+            totalNs += ns;
+            maxNs = Math.max(maxNs, ns);
+            if (ns > FRAME_BUDGET_NS) {
+                overBudget++;
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "Scrolling %d keys: %d frames, %d over budget, avg %.2f ms, max %.2f ms, %d holders, %d binds, %d bytes allocated per bind",
+                KEY_COUNT, stepNs.size(), overBudget, totalNs / (double) stepNs.size() / 1000000, maxNs / 1000000.0,
+                adapter.created, adapter.binds, allocatedBytes / Math.max(1, adapter.binds)));
+
+        // Every row was bound, mostly through recycled holders.
+        assertFalse(recyclerView.canScrollVertically(1));
+        assertTrue(adapter.boundPositions.contains(KEY_COUNT - 1));
+        assertTrue(adapter.created * 2 < KEY_COUNT);
+        assertFalse(ShadowLog.getLogsForTag(FrameTimeMonitor.class.getSimpleName()).isEmpty());
+    }
+
+    @Test
+    public void getStableId_isDerivedFromTheGrantId() {
+        assertEquals(0xaf63dc4c8601ec8cL, KeyItemAdapter.getStableId("a"));
+        assertEquals(KeyItemAdapter.getStableId("grant-1"), KeyItemAdapter.getStableId("grant-" + 1));
+
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            ids.add(KeyItemAdapter.getStableId("grant-" + i));
+        }
+        assertEquals(KEY_COUNT, ids.size());
+    }
+
+    /**
+     * Scrolls by the given step, one frame at a time, until the end of the list or the given
+     * number of steps, and returns how long each step took.
+     */
+    private static List<Long> scrollThrough(RecyclerView recyclerView, int step, int maxSteps) {
+        List<Long> res = new ArrayList<>();
+        for (int i = 0; i < maxSteps && recyclerView.canScrollVertically(1); i++) {
+            long start = System.nanoTime();
+            recyclerView.scrollBy(0, step);
+            res.add(System.nanoTime() - start);
+
+            // Let the frame callbacks run.
+            shadowOf(getMainLooper()).idleFor(Duration.ofMillis(16));
+        }
+        return res;
+    }
+
+    private static void layout(RecyclerView recyclerView) {
+        shadowOf(getMainLooper()).idle();
+        recyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, 1080, 1920);
+    }
+
+    private static List<KeyRowViewModel> newRows(int count) {
+        List<KeyRowViewModel> res = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            res.add(new KeyRowViewModel(
+                    "grant-" + i,
+                    "lock-" + i,
+                    "Lock " + i,
+                    "Issued by Owner " + (i % 10),
+                    "Located at Floor " + (i % 5),
+                    (i % 3 == 0) ? "Restricted access" : "Unrestricted access",
+                    (i % 2 == 0) ? "for Grantee " + i : null,
+                    "Lock " + i + "\nFloor " + (i % 5) + "\nOwner " + (i % 10) + "\n"));
+        }
+        return res;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, or 0 if the JVM can't
+     * tell.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
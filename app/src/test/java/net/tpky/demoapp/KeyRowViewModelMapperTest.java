@@ -0,0 +1,122 @@
+package net.tpky.demoapp;
+
+import com.tapkey.mobile.model.KeyDetails;
+import com.tapkey.mobile.utils.Tuple;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static android.os.Looper.getMainLooper;
+import static net.tpky.demoapp.TestGrants.newGrant;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class KeyRowViewModelMapperTest {
+
+    private KeyRowViewModelMapper mapper;
+
+    @Before
+    public void setUp() {
+        mapper = new KeyRowViewModelMapper(RuntimeEnvironment.getApplication());
+    }
+
+    @After
+    public void tearDown() {
+        mapper.close();
+    }
+
+    @Test
+    public void mapAsync_formatsDisplayStrings() throws InterruptedException {
+        ApplicationGrantDto grant = newGrant("grant-1", "Active", "Front Door");
+        grant.setIssuer("Sample Owner");
+        grant.setLockLocation("Vienna");
+        grant.setGranteeFirstName("Jane");
+        grant.setGranteeLastName("Doe");
+        grant.setValidBefore(new Date(1645110600000L));
+
+        KeyRowViewModel row = map(grant).get(0);
+
+        assertEquals("grant-1", row.grantId);
+        assertEquals("lock-grant-1", row.physicalLockId);
+        assertEquals("Front Door", row.lockTitle);
+        assertEquals("Issued by Sample Owner", row.issuer);
+        assertEquals("Located at Vienna", row.location);
+        assertEquals("Restricted access", row.accessRestriction);
+        assertEquals("for Jane Doe", row.grantee);
+    }
+
+    @Test
+    public void mapAsync_fallsBackForMissingInformation() throws InterruptedException {
+        KeyRowViewModel row = map(newGrant("grant-1", "Active", null)).get(0);
+
+        assertEquals("Unknown lock", row.lockTitle);
+        assertEquals("Unknown issuer", row.issuer);
+        assertEquals("Unknown location", row.location);
+        assertEquals("Unrestricted access", row.accessRestriction);
+        assertNull(row.grantee);
+    }
+
+    @Test
+    public void mapAsync_formatsPartialGranteeNames() throws InterruptedException {
+        ApplicationGrantDto firstNameOnly = newGrant("grant-1", "Active", "Front Door");
+        firstNameOnly.setGranteeFirstName("Jane");
+        ApplicationGrantDto lastNameOnly = newGrant("grant-2", "Active", "Back Door");
+        lastNameOnly.setGranteeLastName("Doe");
+
+        List<KeyRowViewModel> rows = map(firstNameOnly, lastNameOnly);
+
+        assertEquals("for Jane", rows.get(0).grantee);
+        assertEquals("for Doe", rows.get(1).grantee);
+    }
+
+    @Test
+    public void mapAsync_reusesViewModelsOfUnchangedGrants() throws InterruptedException {
+        List<KeyRowViewModel> first = map(newGrant("grant-1", "Active", "Front Door"), newGrant("grant-2", "Active", "Back Door"));
+
+        List<KeyRowViewModel> second = map(newGrant("grant-2", "Active", "Back Door"), newGrant("grant-1", "Active", "Main Entrance"));
+
+        assertSame(first.get(1), second.get(0));
+        assertNotSame(first.get(0), second.get(1));
+        assertEquals("Main Entrance", second.get(1).lockTitle);
+    }
+
+    private List<KeyRowViewModel> map(ApplicationGrantDto... grants) throws InterruptedException {
+        // The mapper only looks at the grants.
+        List<Tuple<KeyDetails, ApplicationGrantDto>> items = new ArrayList<>();
+        for (ApplicationGrantDto grant : grants) {
+            items.add(new Tuple<>(null, grant));
+        }
+
+        AtomicReference<List<KeyRowViewModel>> res = new AtomicReference<>();
+        mapper.mapAsync(items)
+                .continueOnUi(rows -> {
+                    res.set(rows);
+                    return null;
+                })
+                .conclude();
+
+        // The mapping completes on the mapper's thread.
+        for (int i = 0; i < 500 && res.get() == null; i++) {
+            shadowOf(getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertNotNull(res.get());
+        assertEquals(grants.length, res.get().size());
+        return res.get();
+    }
+}
@@ -0,0 +1,130 @@
+package net.tpky.demoapp;
+
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.model.KeyDetails;
+import com.tapkey.mobile.utils.Tuple;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static android.os.Looper.getMainLooper;
+import static net.tpky.demoapp.TestGrants.newGrant;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class KeySearchIndexTest {
+
+    private final GrantRepository repository = new GrantRepository();
+    private final KeySearchIndex index = new KeySearchIndex();
+    private List<KeyRowViewModel> rows;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        ApplicationGrantDto frontDoor = newGrant("grant-1", "Active", "Front Door");
+        frontDoor.setLockLocation("Vienna, Main Street");
+        frontDoor.setIssuer("Sample Owner");
+        frontDoor.setGranteeFirstName("Jane");
+        frontDoor.setGranteeLastName("Doe");
+
+        ApplicationGrantDto backDoor = newGrant("grant-2", "Active", "Back Door");
+        backDoor.setIssuer("Facility Management");
+        backDoor.setGranteeLastName("Smith");
+
+        ApplicationGrantDto garage = newGrant("grant-3", "Active", null);
+        garage.setLockLocation("Graz");
+
+        List<ApplicationGrantDto> grants = Arrays.asList(frontDoor, backDoor, garage);
+        repository.addListener(index);
+        repository.setAll(grants);
+        rows = map(grants);
+    }
+
+    @Test
+    public void search_matchesTokenPrefixesOfAllQueryTokens() {
+        assertEquals(new HashSet<>(Arrays.asList("grant-1", "grant-2")), index.search("door"));
+        assertEquals(Collections.singleton("grant-1"), index.search("DOOR vie"));
+        assertEquals(Collections.singleton("grant-2"), index.search("smi"));
+        assertEquals(Collections.emptySet(), index.search("door graz"));
+        assertNull(index.search(" , "));
+    }
+
+    @Test
+    public void search_followsTheRepository() {
+        repository.remove("grant-1");
+        ApplicationGrantDto renamed = newGrant("grant-2", "Active", "Side Door");
+        repository.put(renamed);
+
+        assertEquals(Collections.singleton("grant-2"), index.search("door"));
+        assertEquals(Collections.emptySet(), index.search("back"));
+        assertEquals(Collections.emptySet(), index.search("jane"));
+    }
+
+    @Test
+    public void searchRows_matchesLikeTheIndex() {
+        String[] queries = {
+                "door", "front vienna", "sample", "jane doe", "smith", "graz", "main st",
+                // Labels and placeholders of the displayed strings aren't searchable.
+                "issued", "located", "for", "null", "unknown",
+        };
+
+        for (String query : queries) {
+            assertEquals(query, index.search(query), KeySearchIndex.searchRows(query, rows));
+        }
+    }
+
+    @Test
+    public void searchRows_searchesRowsRestoredFromTheSnapshot() throws InterruptedException {
+        KeyListSnapshot snapshot = new KeyListSnapshot(RuntimeEnvironment.getApplication());
+        snapshot.save(rows);
+
+        List<KeyRowViewModel> restored = await(snapshot.loadAsync());
+
+        assertEquals(rows, restored);
+        assertEquals(index.search("jane"), KeySearchIndex.searchRows("jane", restored));
+        snapshot.close();
+    }
+
+    private static List<KeyRowViewModel> map(List<ApplicationGrantDto> grants) throws InterruptedException {
+        KeyRowViewModelMapper mapper = new KeyRowViewModelMapper(RuntimeEnvironment.getApplication());
+        List<Tuple<KeyDetails, ApplicationGrantDto>> items = new ArrayList<>();
+        for (ApplicationGrantDto grant : grants) {
+            items.add(new Tuple<>(null, grant));
+        }
+        try {
+            return await(mapper.mapAsync(items));
+        } finally {
+            mapper.close();
+        }
+    }
+
+    private static <T> T await(Promise<T> promise) throws InterruptedException {
+        AtomicReference<T> res = new AtomicReference<>();
+        promise
+                .continueOnUi(result -> {
+                    res.set(result);
+                    return null;
+                })
+                .conclude();
+
+        // The promise completes on a background thread.
+        for (int i = 0; i < 500 && res.get() == null; i++) {
+            shadowOf(getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertNotNull(res.get());
+        return res.get();
+    }
+}
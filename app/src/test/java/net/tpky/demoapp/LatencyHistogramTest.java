@@ -0,0 +1,112 @@
+package net.tpky.demoapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    // Larger than any bucket's upper bound, so it doesn't cap the percentiles below.
+    private static final long HUGE = Long.MAX_VALUE / 2;
+
+    @Test
+    public void smallDurations_haveExactBuckets() {
+        for (long value = 0; value < 8; value++) {
+            assertEquals(value, getBucketUpperBound(value));
+        }
+    }
+
+    @Test
+    public void bucketBoundaries_splitEachPowerOfTwoInFour() {
+        assertEquals(9, getBucketUpperBound(8));
+        assertEquals(9, getBucketUpperBound(9));
+        assertEquals(11, getBucketUpperBound(10));
+        assertEquals(15, getBucketUpperBound(14));
+        assertEquals(19, getBucketUpperBound(16));
+        assertEquals(19, getBucketUpperBound(19));
+        assertEquals(23, getBucketUpperBound(20));
+        assertEquals(1023, getBucketUpperBound(896));
+        assertEquals(895, getBucketUpperBound(895));
+        assertEquals(1023, getBucketUpperBound(1000));
+        assertEquals(1279, getBucketUpperBound(1024));
+        assertEquals((1 << 20) + (1 << 18) - 1, getBucketUpperBound(1 << 20));
+    }
+
+    @Test
+    public void bucketUpperBounds_areWithinAQuarterOfTheDuration() {
+        for (long value = 1; value < (1 << 21); value += Math.max(1, value / 97)) {
+            long upperBound = getBucketUpperBound(value);
+            assertTrue(value + " -> " + upperBound, upperBound >= value);
+            assertTrue(value + " -> " + upperBound, upperBound < value * 1.25);
+        }
+    }
+
+    @Test
+    public void longDurations_areCountedInTheLastBucket() {
+        long lastUpperBound = (1 << 21) - 1;
+
+        assertEquals(lastUpperBound, getBucketUpperBound(lastUpperBound));
+        assertEquals(lastUpperBound, getBucketUpperBound(1 << 21));
+        assertEquals(lastUpperBound, getBucketUpperBound(24L * 60 * 60 * 1000));
+    }
+
+    @Test
+    public void getPercentile_isCappedByTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+
+        assertEquals(1000, histogram.getPercentile(0.5));
+        assertEquals(1000, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void getPercentile_ranksRecordedDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(1, histogram.getPercentile(0));
+
+        // The 50th value is counted in [48, 55], the 95th in [80, 95].
+        assertEquals(55, histogram.getPercentile(0.5));
+        assertEquals(95, histogram.getPercentile(0.95));
+        assertEquals(100, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void record_countsNegativeDurationsAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void clear_forgetsAllDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+
+        histogram.clear();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    /**
+     * Returns the largest duration counted in the same bucket as the given one, which is what
+     * percentiles report, unless the maximum recorded duration is smaller.
+     */
+    private static long getBucketUpperBound(long value) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(value);
+        histogram.record(HUGE);
+        return histogram.getPercentile(0.5);
+    }
+}
@@ -0,0 +1,262 @@
+package net.tpky.demoapp;
+
+import com.tapkey.mobile.concurrent.CancellationToken;
+import com.tapkey.mobile.concurrent.CancellationTokenSource;
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static android.os.Looper.getMainLooper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class LockPrewarmerTest {
+
+    private static final long IDLE_TIME_MS = 10000;
+    private static final long COMMAND_TIMEOUT_MS = 5000;
+
+    /**
+     * Records the connections opened and lets the test decide when they are established and
+     * when they complete.
+     */
+    private static class FakeConnector implements LockPrewarmer.Connector {
+
+        static class Connection {
+            final String bluetoothAddress;
+            final String physicalLockId;
+            final Runnable onConnected;
+            final CancellationToken ct;
+            final PromiseSource<Boolean> result = new PromiseSource<>();
+            final AtomicReference<TriggerRequest> command = new AtomicReference<>();
+            boolean commandCompleted;
+
+            Connection(String bluetoothAddress, String physicalLockId, Runnable onConnected, CancellationToken ct) {
+                this.bluetoothAddress = bluetoothAddress;
+                this.physicalLockId = physicalLockId;
+                this.onConnected = onConnected;
+                this.ct = ct;
+            }
+        }
+
+        final List<Connection> connections = new ArrayList<>();
+
+        @Override
+        public Promise<Boolean> connectAndTrigger(String bluetoothAddress, String physicalLockId, Runnable onConnected, Promise<TriggerRequest> command, CancellationToken ct) {
+            Connection connection = new Connection(bluetoothAddress, physicalLockId, onConnected, ct);
+            connections.add(connection);
+            command
+                    .continueOnUi(request -> {
+                        connection.command.set(request);
+                        connection.commandCompleted = true;
+                        return null;
+                    })
+                    .conclude();
+            return connection.result.getPromise();
+        }
+
+        Connection get(String physicalLockId) {
+            Connection res = null;
+            for (Connection connection : connections) {
+                if (connection.physicalLockId.equals(physicalLockId)) {
+                    res = connection;
+                }
+            }
+            return res;
+        }
+    }
+
+    private final Map<String, String> addresses = new HashMap<>();
+    private final Set<String> candidates = new HashSet<>();
+    private final FakeConnector connector = new FakeConnector();
+    private LockPrewarmer prewarmer;
+
+    @Before
+    public void setUp() {
+        for (String lockId : Arrays.asList("lock-a", "lock-b", "lock-c")) {
+            addresses.put(lockId, "address-" + lockId);
+            candidates.add(lockId);
+        }
+        prewarmer = new LockPrewarmer(addresses::get, connector, candidates::contains, 2, IDLE_TIME_MS, COMMAND_TIMEOUT_MS);
+    }
+
+    @Test
+    public void onNearbyLocksChanged_connectsToCandidatesWithResolvedAddresses() {
+        candidates.remove("lock-b");
+        addresses.remove("lock-c");
+
+        setNearby("lock-a", "lock-b", "lock-c");
+
+        assertEquals(1, connector.connections.size());
+        assertEquals("address-lock-a", connector.get("lock-a").bluetoothAddress);
+        assertEquals("address-lock-a", prewarmer.getBluetoothAddress("lock-a"));
+    }
+
+    @Test
+    public void onNearbyLocksChanged_keepsAddressesOfLocksStillNearby() {
+        setNearby("lock-a");
+        addresses.remove("lock-a");
+
+        // The scanner briefly lost the lock.
+        setNearby("lock-a");
+        assertEquals("address-lock-a", prewarmer.getBluetoothAddress("lock-a"));
+
+        setNearby();
+        assertNull(prewarmer.getBluetoothAddress("lock-a"));
+    }
+
+    @Test
+    public void onNearbyLocksChanged_closesTheOldestConnectionToMakeRoom() {
+        setNearby("lock-a");
+        setNearby("lock-a", "lock-b");
+        setNearby("lock-a", "lock-b", "lock-c");
+
+        assertEquals(3, connector.connections.size());
+        assertClosed(connector.get("lock-a"));
+        assertOpen(connector.get("lock-b"));
+        assertOpen(connector.get("lock-c"));
+    }
+
+    @Test
+    public void onNearbyLocksChanged_connectsOnceWhileTheLockStaysInRange() {
+        setNearby("lock-a");
+        connector.get("lock-a").result.setResult(null);
+        idle();
+
+        setNearby("lock-a");
+        assertEquals(1, connector.connections.size());
+
+        // Once the lock has been out of range, it is connected to again.
+        setNearby();
+        setNearby("lock-a");
+        assertEquals(2, connector.connections.size());
+    }
+
+    @Test
+    public void onNearbyLocksChanged_closesConnectionsToLocksOutOfRange() {
+        setNearby("lock-a", "lock-b");
+
+        setNearby("lock-b");
+
+        assertClosed(connector.get("lock-a"));
+        assertOpen(connector.get("lock-b"));
+    }
+
+    @Test
+    public void trigger_executesTheCommandOverAnEstablishedConnection() {
+        setNearby("lock-a");
+        FakeConnector.Connection connection = connector.get("lock-a");
+        connection.onConnected.run();
+
+        TriggerRequest request = new TriggerRequest(new CancellationTokenSource().getToken(), null);
+        AtomicReference<Boolean> result = new AtomicReference<>();
+        prewarmer.trigger("lock-a", request)
+                .continueOnUi(triggered -> {
+                    result.set(triggered);
+                    return null;
+                })
+                .conclude();
+        idle();
+
+        assertSame(request, connection.command.get());
+
+        connection.result.setResult(true);
+        idle();
+        assertEquals(Boolean.TRUE, result.get());
+
+        // The connection has been used up.
+        assertNull(prewarmer.trigger("lock-a", request));
+    }
+
+    @Test
+    public void trigger_leavesConnectingToTheCallerWhileStillConnecting() {
+        setNearby("lock-a");
+
+        assertNull(prewarmer.trigger("lock-a", new TriggerRequest(new CancellationTokenSource().getToken(), null)));
+
+        assertClosed(connector.get("lock-a"));
+    }
+
+    @Test
+    public void trigger_withoutConnectionReturnsNull() {
+        assertNull(prewarmer.trigger("lock-a", new TriggerRequest(new CancellationTokenSource().getToken(), null)));
+    }
+
+    @Test
+    public void idleConnections_areClosedAfterTheIdleTime() {
+        setNearby("lock-a");
+        connector.get("lock-a").onConnected.run();
+
+        shadowOf(getMainLooper()).idleFor(Duration.ofMillis(IDLE_TIME_MS - 1));
+        assertOpen(connector.get("lock-a"));
+
+        shadowOf(getMainLooper()).idleFor(Duration.ofMillis(1));
+        assertClosed(connector.get("lock-a"));
+    }
+
+    @Test
+    public void closeConnectionsExcept_keepsTheGivenLocksConnection() {
+        setNearby("lock-a", "lock-b");
+
+        prewarmer.closeConnectionsExcept("lock-b");
+
+        assertClosed(connector.get("lock-a"));
+        assertOpen(connector.get("lock-b"));
+    }
+
+    @Test
+    public void stop_closesAllConnections() {
+        setNearby("lock-a", "lock-b");
+
+        prewarmer.stop();
+
+        assertClosed(connector.get("lock-a"));
+        assertClosed(connector.get("lock-b"));
+
+        // Locks still in range are connected to again.
+        setNearby("lock-a", "lock-b");
+        assertEquals(4, connector.connections.size());
+    }
+
+    private void setNearby(String... lockIds) {
+        prewarmer.onNearbyLocksChanged(new HashSet<>(Arrays.asList(lockIds)));
+        idle();
+    }
+
+    private static void assertOpen(FakeConnector.Connection connection) {
+        assertFalse(connection.ct.isCancellationRequested());
+        assertFalse(connection.commandCompleted);
+    }
+
+    /**
+     * Asserts that the connection was closed without executing a command.
+     */
+    private static void assertClosed(FakeConnector.Connection connection) {
+        idle();
+        assertTrue(connection.ct.isCancellationRequested());
+        assertTrue(connection.commandCompleted);
+        assertNull(connection.command.get());
+    }
+
+    private static void idle() {
+        shadowOf(getMainLooper()).idle();
+    }
+}
@@ -0,0 +1,84 @@
+package net.tpky.demoapp;
+
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static android.os.Looper.getMainLooper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class RequestCoalescerTest {
+
+    private final RequestCoalescer<String, String> coalescer = new RequestCoalescer<>("Test");
+    private final List<PromiseSource<String>> operations = new ArrayList<>();
+
+    @Test
+    public void execute_coalescesRequestsForTheSameKey() {
+        AtomicReference<String> first = execute("a");
+        AtomicReference<String> second = execute("a");
+        AtomicReference<String> other = execute("b");
+
+        assertEquals(2, operations.size());
+
+        operations.get(0).setResult("result");
+        idle();
+
+        assertEquals("result", first.get());
+        assertEquals("result", second.get());
+        assertNull(other.get());
+    }
+
+    @Test
+    public void execute_startsANewOperationOnceThePendingOneCompleted() {
+        execute("a");
+        operations.get(0).setResult("first");
+        idle();
+
+        AtomicReference<String> next = execute("a");
+        operations.get(1).setResult("second");
+        idle();
+
+        assertEquals(2, operations.size());
+        assertEquals("second", next.get());
+    }
+
+    @Test
+    public void counters_countCoalescedRequests() {
+        execute("a");
+        execute("a");
+        execute("a");
+        execute("b");
+
+        assertEquals(4, coalescer.getRequestCount());
+        assertEquals(2, coalescer.getCoalescedCount());
+    }
+
+    private AtomicReference<String> execute(String key) {
+        AtomicReference<String> res = new AtomicReference<>();
+        coalescer
+                .execute(key, () -> {
+                    PromiseSource<String> operation = new PromiseSource<>();
+                    operations.add(operation);
+                    return operation.getPromise();
+                })
+                .continueOnUi(result -> {
+                    res.set(result);
+                    return null;
+                })
+                .conclude();
+        return res;
+    }
+
+    private static void idle() {
+        shadowOf(getMainLooper()).idle();
+    }
+}
@@ -0,0 +1,194 @@
+package net.tpky.demoapp;
+
+import android.content.Context;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.ServerError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.NoCache;
+import com.tapkey.mobile.concurrent.Promise;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static android.os.Looper.getMainLooper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests the delta synchronization of grants against a fake request queue, which lets the test
+ * answer each request.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SampleServerManagerTest {
+
+    private static final String USERNAME = "alice";
+    private static final String PASSWORD = "secret";
+
+    private static final String GRANT_1 = "{\"id\":\"grant-1\",\"physicalLockId\":\"lock-1\",\"state\":\"Active\"}";
+    private static final String GRANT_2 = "{\"id\":\"grant-2\",\"physicalLockId\":\"lock-2\",\"state\":\"Active\"}";
+
+    private static class FakeRequestQueue extends RequestQueue {
+        final List<Request<?>> requests = new ArrayList<>();
+
+        FakeRequestQueue() {
+            super(new NoCache(), new BasicNetwork(new HurlStack()));
+        }
+
+        @Override
+        public synchronized <T> Request<T> add(Request<T> request) {
+            requests.add(request);
+            return request;
+        }
+
+        synchronized int size() {
+            return requests.size();
+        }
+
+        synchronized Request<?> get(int index) {
+            return requests.get(index);
+        }
+    }
+
+    private FakeRequestQueue queue;
+    private SampleServerManager manager;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        queue = new FakeRequestQueue();
+        manager = new SampleServerManager(context, queue);
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Test
+    public void syncGrants_sendsTheWatermarkOfThePreviousSynchronization() throws InterruptedException {
+        AtomicReference<List<ApplicationGrantDto>> first = sync("grant-1");
+        GrantChangesRequest initial = awaitRequest(0, GrantChangesRequest.class);
+        assertFalse(initial.getUrl(), initial.getUrl().contains("since="));
+        respond(initial, "{\"watermark\":\"w1\",\"changed\":[" + GRANT_1 + "],\"revoked\":[]}");
+        runUntil(() -> first.get() != null);
+        assertEquals("grant-1", first.get().get(0).getId());
+
+        AtomicReference<List<ApplicationGrantDto>> second = sync("grant-1");
+        GrantChangesRequest delta = awaitRequest(1, GrantChangesRequest.class);
+        assertTrue(delta.getUrl(), delta.getUrl().endsWith("since=w1"));
+        respond(delta, "{\"watermark\":\"w2\",\"changed\":[],\"revoked\":[]}");
+        runUntil(() -> second.get() != null);
+        assertEquals("grant-1", second.get().get(0).getId());
+    }
+
+    @Test
+    public void syncGrants_synchronizesAllGrantsWhenTheWatermarkIsGone() throws InterruptedException {
+        AtomicReference<List<ApplicationGrantDto>> first = sync("grant-1", "grant-2");
+        respond(awaitRequest(0, GrantChangesRequest.class),
+                "{\"watermark\":\"w1\",\"changed\":[" + GRANT_1 + "," + GRANT_2 + "],\"revoked\":[]}");
+        runUntil(() -> first.get() != null);
+
+        AtomicReference<List<ApplicationGrantDto>> second = sync("grant-1");
+        GrantChangesRequest delta = awaitRequest(1, GrantChangesRequest.class);
+        assertTrue(delta.getUrl(), delta.getUrl().endsWith("since=w1"));
+        delta.deliverError(new ServerError(newResponse(410)));
+
+        // The full synchronization replaces all cached grants, dropping grant-2.
+        GrantChangesRequest full = awaitRequest(2, GrantChangesRequest.class);
+        assertFalse(full.getUrl(), full.getUrl().contains("since="));
+        respond(full, "{\"watermark\":\"w2\",\"changed\":[" + GRANT_1 + "],\"revoked\":[]}");
+        runUntil(() -> second.get() != null);
+        assertEquals(1, second.get().size());
+
+        AtomicReference<List<ApplicationGrantDto>> cached = new AtomicReference<>();
+        then(manager.getCachedGrants(USERNAME, new String[]{"grant-2"}), cached);
+        runUntil(() -> cached.get() != null);
+        assertTrue(cached.get().isEmpty());
+
+        sync("grant-1");
+        GrantChangesRequest next = awaitRequest(3, GrantChangesRequest.class);
+        assertTrue(next.getUrl(), next.getUrl().endsWith("since=w2"));
+    }
+
+    @Test
+    public void syncGrants_fetchesGrantsWhenDeltaSynchronizationIsUnsupported() throws InterruptedException {
+        AtomicReference<List<ApplicationGrantDto>> first = sync("grant-1");
+        awaitRequest(0, GrantChangesRequest.class).deliverError(new ServerError(newResponse(404)));
+
+        GrantsRequest fallback = awaitRequest(1, GrantsRequest.class);
+        assertTrue(fallback.getUrl(), fallback.getUrl().contains("grantIds=grant-1"));
+        respond(fallback, "[" + GRANT_1 + "]");
+        runUntil(() -> first.get() != null);
+        assertEquals("grant-1", first.get().get(0).getId());
+
+        // Later synchronizations don't try the delta synchronization endpoint again.
+        sync("grant-1");
+        awaitRequest(2, GrantsRequest.class);
+    }
+
+    private AtomicReference<List<ApplicationGrantDto>> sync(String... grantIds) {
+        AtomicReference<List<ApplicationGrantDto>> res = new AtomicReference<>();
+        then(manager.syncGrants(USERNAME, PASSWORD, grantIds), res);
+        return res;
+    }
+
+    private static <T> void then(Promise<T> promise, AtomicReference<T> res) {
+        promise
+                .continueOnUi(result -> {
+                    res.set(result);
+                    return null;
+                })
+                .conclude();
+    }
+
+    private <T extends Request<?>> T awaitRequest(int index, Class<T> type) throws InterruptedException {
+        runUntil(() -> queue.size() > index);
+        assertEquals(index + 1, queue.size());
+        return type.cast(queue.get(index));
+    }
+
+    private static void respond(GrantChangesRequest request, String json) {
+        request.deliverResponse(request.parseNetworkResponse(newResponse(json)).result);
+    }
+
+    private static void respond(GrantsRequest request, String json) {
+        request.deliverResponse(request.parseNetworkResponse(newResponse(json)).result);
+    }
+
+    private static NetworkResponse newResponse(String json) {
+        return new NetworkResponse(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static NetworkResponse newResponse(int statusCode) {
+        return new NetworkResponse(statusCode, new byte[0], false, 0, Collections.emptyList());
+    }
+
+    /**
+     * Runs the main looper until the given condition holds. The grant cache completes its
+     * promises on its own thread, so the condition may take a while to be reached.
+     */
+    private static void runUntil(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            shadowOf(getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
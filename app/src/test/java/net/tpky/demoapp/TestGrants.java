@@ -0,0 +1,27 @@
+package net.tpky.demoapp;
+
+/**
+ * Fixtures for application grant information, shared by the tests.
+ */
+class TestGrants {
+
+    /**
+     * Returns a grant with the given ID and state for the lock with physical lock ID "lock-" + ID.
+     */
+    static ApplicationGrantDto newGrant(String id, String state) {
+        ApplicationGrantDto grant = new ApplicationGrantDto();
+        grant.setId(id);
+        grant.setState(state);
+        grant.setPhysicalLockId("lock-" + id);
+        return grant;
+    }
+
+    /**
+     * Returns a grant with the given ID and state for the lock with the given title.
+     */
+    static ApplicationGrantDto newGrant(String id, String state, String lockTitle) {
+        ApplicationGrantDto grant = newGrant(id, state);
+        grant.setLockTitle(lockTitle);
+        return grant;
+    }
+}
@@ -0,0 +1,115 @@
+package net.tpky.demoapp;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class TriggerPolicyTest {
+
+    private static final String LOCK = "lock-1";
+
+    private Context context;
+    private TriggerPolicy policy;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        policy = new TriggerPolicy(context);
+    }
+
+    @Test
+    public void getTimeoutMs_isDefaultUntilBothPhasesWereMeasured() {
+        assertEquals(TriggerPolicy.DEFAULT_TIMEOUT_MS, policy.getTimeoutMs(LOCK));
+
+        policy.onConnected(LOCK, 1000);
+
+        assertEquals(TriggerPolicy.DEFAULT_TIMEOUT_MS, policy.getTimeoutMs(LOCK));
+    }
+
+    @Test
+    public void getTimeoutMs_coversAveragePlusFourDeviations() {
+        // The first sample starts with half of it as deviation: 1000 + 4 * 500 and 500 + 4 * 250.
+        policy.onConnected(LOCK, 1000);
+        policy.onExecuted(LOCK, 500);
+        assertEquals(4500, policy.getTimeoutMs(LOCK));
+
+        // Deviation 0.75 * 500 + 0.25 * 1000 = 625, average 0.875 * 1000 + 0.125 * 2000 = 1125.
+        policy.onConnected(LOCK, 2000);
+        assertEquals(1125 + 4 * 625 + 1500, policy.getTimeoutMs(LOCK));
+    }
+
+    @Test
+    public void getTimeoutMs_isClamped() {
+        policy.onConnected("fast", 100);
+        policy.onExecuted("fast", 100);
+        policy.onConnected("slow", 10000);
+        policy.onExecuted("slow", 5000);
+
+        assertEquals(TriggerPolicy.MIN_TIMEOUT_MS, policy.getTimeoutMs("fast"));
+        assertEquals(TriggerPolicy.MAX_TIMEOUT_MS, policy.getTimeoutMs("slow"));
+    }
+
+    @Test
+    public void onTimedOut_doublesTheTimeoutUpToFourTimes() {
+        policy.onConnected(LOCK, 1000);
+        policy.onExecuted(LOCK, 500);
+
+        policy.onTimedOut(LOCK);
+        assertEquals(9000, policy.getTimeoutMs(LOCK));
+        policy.onTimedOut(LOCK);
+        assertEquals(18000, policy.getTimeoutMs(LOCK));
+        policy.onTimedOut(LOCK);
+        assertEquals(18000, policy.getTimeoutMs(LOCK));
+
+        // Other locks are not affected.
+        policy.onConnected("lock-2", 1000);
+        policy.onExecuted("lock-2", 500);
+        assertEquals(4500, policy.getTimeoutMs("lock-2"));
+    }
+
+    @Test
+    public void onTimedOut_backoffIsResetOnceTheLockResponds() {
+        policy.onConnected(LOCK, 1000);
+        policy.onExecuted(LOCK, 500);
+        policy.onTimedOut(LOCK);
+
+        // Deviation 0.75 * 500 + 0.25 * 2000 = 875, average 0.875 * 1000 + 0.125 * 3000 = 1250.
+        policy.onConnected(LOCK, 3000);
+
+        assertEquals(1250 + 4 * 875 + 1500, policy.getTimeoutMs(LOCK));
+    }
+
+    @Test
+    public void onTimedOut_withoutMeasurementsKeepsTheDefault() {
+        policy.onTimedOut(LOCK);
+
+        assertEquals(TriggerPolicy.DEFAULT_TIMEOUT_MS, policy.getTimeoutMs(LOCK));
+    }
+
+    @Test
+    public void statistics_surviveRestarts() {
+        policy.onConnected(LOCK, 1000);
+        policy.onExecuted(LOCK, 500);
+        policy.onTimedOut(LOCK);
+
+        assertEquals(9000, new TriggerPolicy(context).getTimeoutMs(LOCK));
+    }
+
+    @Test
+    public void clear_forgetsAllStatistics() {
+        policy.onConnected(LOCK, 1000);
+        policy.onExecuted(LOCK, 500);
+
+        policy.clear();
+
+        assertEquals(TriggerPolicy.DEFAULT_TIMEOUT_MS, policy.getTimeoutMs(LOCK));
+        assertEquals(TriggerPolicy.DEFAULT_TIMEOUT_MS, new TriggerPolicy(context).getTimeoutMs(LOCK));
+    }
+}
@@ -0,0 +1,291 @@
+package net.tpky.demoapp;
+
+import com.tapkey.mobile.concurrent.CancellationToken;
+import com.tapkey.mobile.concurrent.CancellationTokenSource;
+import com.tapkey.mobile.concurrent.Promise;
+import com.tapkey.mobile.concurrent.PromiseSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static android.os.Looper.getMainLooper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class TriggerSchedulerTest {
+
+    /**
+     * Records the connections requested and lets the test decide when they connect and complete.
+     */
+    private static class FakeConnector implements LockPrewarmer.Connector {
+
+        class Connection {
+            final String physicalLockId;
+            final Runnable onConnected;
+            final CancellationToken ct;
+            final PromiseSource<Boolean> result = new PromiseSource<>();
+
+            Connection(String physicalLockId, Runnable onConnected, CancellationToken ct) {
+                this.physicalLockId = physicalLockId;
+                this.onConnected = onConnected;
+                this.ct = ct;
+            }
+
+            void connect() {
+                onConnected.run();
+            }
+
+            void complete(boolean triggered) {
+                active.remove(this);
+                result.setResult(triggered);
+            }
+
+            void fail(Exception e) {
+                active.remove(this);
+                result.setException(e);
+            }
+        }
+
+        final List<Connection> connections = new ArrayList<>();
+        final List<Connection> active = new ArrayList<>();
+        int maxActive;
+
+        @Override
+        public Promise<Boolean> connectAndTrigger(String bluetoothAddress, String physicalLockId, Runnable onConnected, Promise<TriggerRequest> command, CancellationToken ct) {
+            Connection connection = new Connection(physicalLockId, onConnected, ct);
+            connections.add(connection);
+            active.add(connection);
+            maxActive = Math.max(maxActive, active.size());
+            return connection.result.getPromise();
+        }
+
+        Connection get(String physicalLockId) {
+            Connection res = null;
+            for (Connection connection : connections) {
+                if (connection.physicalLockId.equals(physicalLockId)) {
+                    res = connection;
+                }
+            }
+            return res;
+        }
+    }
+
+    private final FakeConnector connector = new FakeConnector();
+    private TriggerLatencyRecorder recorder;
+    private TriggerScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        recorder = new TriggerLatencyRecorder(RuntimeEnvironment.getApplication());
+        scheduler = new TriggerScheduler(2);
+    }
+
+    @Test
+    public void schedule_runsAtMostTheMaximumNumberOfTriggersAtATime() {
+        AtomicReference<Boolean> resultA = schedule("lock-a", new CancellationTokenSource());
+        AtomicReference<Boolean> resultB = schedule("lock-b", new CancellationTokenSource());
+        AtomicReference<Boolean> resultC = schedule("lock-c", new CancellationTokenSource());
+        idle();
+
+        assertEquals(2, connector.active.size());
+        assertNull(connector.get("lock-c"));
+
+        connector.get("lock-a").complete(true);
+        idle();
+
+        assertEquals(Boolean.TRUE, resultA.get());
+        assertEquals(2, connector.active.size());
+        assertTrue(connector.active.contains(connector.get("lock-c")));
+
+        connector.get("lock-b").complete(false);
+        connector.get("lock-c").complete(true);
+        idle();
+
+        assertEquals(Boolean.FALSE, resultB.get());
+        assertEquals(Boolean.TRUE, resultC.get());
+        assertEquals(2, connector.maxActive);
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void schedule_coalescesTriggersOfTheSameLock() {
+        TriggerTrace trace = recorder.startTrace("lock-a");
+        TriggerTrace followerTrace = recorder.startTrace("lock-a");
+        AtomicReference<Boolean> first = schedule("lock-a", new CancellationTokenSource(), trace);
+        AtomicReference<Boolean> second = schedule("lock-a", new CancellationTokenSource(), followerTrace);
+        idle();
+
+        assertEquals(1, connector.connections.size());
+
+        // The phases of the pending trigger are marked on the follower's trace, too.
+        connector.get("lock-a").connect();
+        assertTrue(recorder.formatReport(), recorder.formatReport().contains("CONNECT  n=2"));
+
+        connector.get("lock-a").complete(true);
+        idle();
+
+        assertEquals(Boolean.TRUE, first.get());
+        assertEquals(Boolean.TRUE, second.get());
+        assertTrue(scheduler.isIdle());
+
+        // Once completed, the lock is triggered again.
+        schedule("lock-a", new CancellationTokenSource());
+        idle();
+        assertEquals(2, connector.connections.size());
+    }
+
+    @Test
+    public void schedule_sharesFailures() {
+        AtomicReference<Boolean> first = schedule("lock-a", new CancellationTokenSource());
+        AtomicReference<Exception> error = new AtomicReference<>();
+        TriggerTrace trace = recorder.startTrace("lock-a");
+        scheduler.schedule("lock-a", new CancellationTokenSource().getToken(), trace, ct -> connect("lock-a", trace, ct))
+                .catchOnUi(e -> {
+                    error.set(e);
+                    return null;
+                })
+                .conclude();
+        idle();
+
+        Exception e = new Exception("Lock not reachable.");
+        connector.get("lock-a").fail(e);
+        idle();
+
+        assertNull(first.get());
+        assertTrue(causedBy(error.get(), e));
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void cancel_completesOnlyTheCancellingCallersWait() {
+        CancellationTokenSource firstCts = new CancellationTokenSource();
+        AtomicReference<Boolean> first = schedule("lock-a", firstCts);
+        AtomicReference<Boolean> second = schedule("lock-a", new CancellationTokenSource());
+        idle();
+
+        firstCts.requestCancellation();
+        idleForCancellationCheck();
+
+        assertEquals(Boolean.FALSE, first.get());
+        assertNull(second.get());
+        assertFalse(connector.get("lock-a").ct.isCancellationRequested());
+
+        connector.get("lock-a").complete(true);
+        idle();
+
+        assertEquals(Boolean.TRUE, second.get());
+    }
+
+    @Test
+    public void cancel_byAllCallersCancelsTheRunningTrigger() {
+        CancellationTokenSource firstCts = new CancellationTokenSource();
+        CancellationTokenSource secondCts = new CancellationTokenSource();
+        schedule("lock-a", firstCts);
+        schedule("lock-a", secondCts);
+        idle();
+
+        firstCts.requestCancellation();
+        secondCts.requestCancellation();
+        idleForCancellationCheck();
+
+        assertTrue(connector.get("lock-a").ct.isCancellationRequested());
+
+        // The lock isn't triggered again until the cancelled trigger completed.
+        AtomicReference<Boolean> retry = schedule("lock-a", new CancellationTokenSource());
+        idle();
+        assertEquals(1, connector.connections.size());
+
+        connector.get("lock-a").complete(false);
+        idle();
+
+        assertEquals(2, connector.connections.size());
+        connector.get("lock-a").complete(true);
+        idle();
+        assertEquals(Boolean.TRUE, retry.get());
+    }
+
+    @Test
+    public void cancel_dropsQueuedTriggersWithoutConnecting() {
+        schedule("lock-a", new CancellationTokenSource());
+        schedule("lock-b", new CancellationTokenSource());
+        CancellationTokenSource cts = new CancellationTokenSource();
+        AtomicReference<Boolean> queued = schedule("lock-c", cts);
+        AtomicReference<Boolean> next = schedule("lock-d", new CancellationTokenSource());
+        idle();
+
+        cts.requestCancellation();
+        idleForCancellationCheck();
+        assertEquals(Boolean.FALSE, queued.get());
+
+        connector.get("lock-a").complete(true);
+        idle();
+
+        assertNull(connector.get("lock-c"));
+        assertTrue(connector.active.contains(connector.get("lock-d")));
+
+        connector.get("lock-b").complete(true);
+        connector.get("lock-d").complete(true);
+        idle();
+        assertEquals(Boolean.TRUE, next.get());
+        assertTrue(scheduler.isIdle());
+    }
+
+    private AtomicReference<Boolean> schedule(String physicalLockId, CancellationTokenSource cts) {
+        return schedule(physicalLockId, cts, recorder.startTrace(physicalLockId));
+    }
+
+    private AtomicReference<Boolean> schedule(String physicalLockId, CancellationTokenSource cts, TriggerTrace trace) {
+        AtomicReference<Boolean> res = new AtomicReference<>();
+        scheduler.schedule(physicalLockId, cts.getToken(), trace, ct -> connect(physicalLockId, trace, ct))
+                .continueOnUi(triggered -> {
+                    res.set(triggered);
+                    return null;
+                })
+                .catchOnUi(e -> null)
+                .conclude();
+        return res;
+    }
+
+    /**
+     * Connects to the lock like a tap on a lock without a connection opened ahead of time.
+     */
+    private Promise<Boolean> connect(String physicalLockId, TriggerTrace trace, CancellationToken ct) {
+        PromiseSource<TriggerRequest> command = new PromiseSource<>();
+        command.setResult(new TriggerRequest(ct, trace));
+        return connector.connectAndTrigger(
+                "00:11:22:33:44:55",
+                physicalLockId,
+                () -> trace.mark(TriggerLatencyRecorder.Phase.CONNECT),
+                command.getPromise(),
+                ct);
+    }
+
+    private static boolean causedBy(Throwable e, Throwable cause) {
+        for (; e != null; e = e.getCause()) {
+            if (e == cause) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void idle() {
+        shadowOf(getMainLooper()).idle();
+    }
+
+    private static void idleForCancellationCheck() {
+        shadowOf(getMainLooper()).idleFor(Duration.ofMillis(100));
+    }
+}